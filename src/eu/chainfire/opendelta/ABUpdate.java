@@ -114,11 +114,17 @@ class ABUpdate {
     };
 
     public int start(String zipPath, ProgressListener listener) {
-        try (ZipFile zipFile = new ZipFile(zipPath)) {
-            if (!isABUpdate(zipFile)) return ERROR_INVALID;
-        } catch (Exception ex) {
-            Logger.ex(ex);
-            return ERROR_INVALID;
+        final ZipScanner.Result scanned = VerificationCache.getInstance(mUpdateService)
+                .get(new File(zipPath));
+        if (scanned != null && scanned.valid) {
+            if (!scanned.isABUpdate()) return ERROR_INVALID;
+        } else {
+            try (ZipFile zipFile = new ZipFile(zipPath)) {
+                if (!isABUpdate(zipFile)) return ERROR_INVALID;
+            } catch (Exception ex) {
+                Logger.ex(ex);
+                return ERROR_INVALID;
+            }
         }
         mZipPath = zipPath;
         mProgressListener = listener;
@@ -227,22 +233,30 @@ class ABUpdate {
 
         long offset;
         String[] headerKeyValuePairs;
-        try (ZipFile zipFile = new ZipFile(file)) {
-            offset = getZipEntryOffset(zipFile, PAYLOAD_BIN_PATH);
-            ZipEntry payloadPropEntry = zipFile.getEntry(PAYLOAD_PROPERTIES_PATH);
-            try (InputStream is = zipFile.getInputStream(payloadPropEntry);
-                InputStreamReader isr = new InputStreamReader(is);
-                BufferedReader br = new BufferedReader(isr)) {
-                List<String> lines = new ArrayList<>();
-                for (String line; (line = br.readLine()) != null;) {
-                    lines.add(line);
+        // the checksum pass usually scanned the zip already
+        final ZipScanner.Result scanned = VerificationCache.getInstance(mUpdateService)
+                .get(file);
+        if (scanned != null && scanned.isABUpdate()) {
+            offset = scanned.payloadOffset;
+            headerKeyValuePairs = scanned.payloadProperties;
+        } else {
+            try (ZipFile zipFile = new ZipFile(file)) {
+                offset = getZipEntryOffset(zipFile, PAYLOAD_BIN_PATH);
+                ZipEntry payloadPropEntry = zipFile.getEntry(PAYLOAD_PROPERTIES_PATH);
+                try (InputStream is = zipFile.getInputStream(payloadPropEntry);
+                    InputStreamReader isr = new InputStreamReader(is);
+                    BufferedReader br = new BufferedReader(isr)) {
+                    List<String> lines = new ArrayList<>();
+                    for (String line; (line = br.readLine()) != null;) {
+                        lines.add(line);
+                    }
+                    headerKeyValuePairs = new String[lines.size()];
+                    headerKeyValuePairs = lines.toArray(headerKeyValuePairs);
                 }
-                headerKeyValuePairs = new String[lines.size()];
-                headerKeyValuePairs = lines.toArray(headerKeyValuePairs);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Could not prepare " + file, e);
+                return ERROR_CORRUPTED;
             }
-        } catch (IOException | IllegalArgumentException e) {
-            Log.e(TAG, "Could not prepare " + file, e);
-            return ERROR_CORRUPTED;
         }
 
         try {
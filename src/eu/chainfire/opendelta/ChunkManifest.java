@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Optional per-block hash list published next to a build, as
+ * &lt;build&gt;.zip.chunks. The first line holds the block size in bytes,
+ * every following line the SHA-256 of one block (sha256sum style, anything
+ * after the hash is ignored). The last block may be short.
+ */
+class ChunkManifest {
+    public static final String SUFFIX = ".chunks";
+
+    private static final long MIN_BLOCK_SIZE = 1024L * 1024L;
+    private static final long MAX_BLOCK_SIZE = 64L * 1024L * 1024L;
+
+    private final long mBlockSize;
+    private final List<String> mHashes;
+
+    private ChunkManifest(long blockSize, List<String> hashes) {
+        mBlockSize = blockSize;
+        mHashes = hashes;
+    }
+
+    /**
+     * @return the parsed manifest, or null if there is none or it is malformed
+     */
+    public static ChunkManifest fromString(String manifest) {
+        if (manifest == null) return null;
+        final String[] lines = manifest.split("\n");
+        try {
+            final long blockSize = Long.parseLong(lines[0].trim());
+            if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE
+                    || blockSize % 4096 != 0) {
+                Logger.d("chunk manifest: bad block size %d", blockSize);
+                return null;
+            }
+            final List<String> hashes = new ArrayList<>(lines.length - 1);
+            for (int i = 1; i < lines.length; i++) {
+                final String line = lines[i].trim();
+                if (line.isEmpty()) continue;
+                final String hash = line.split("\\s+")[0].toLowerCase(Locale.ENGLISH);
+                if (!hash.matches("[0-9a-f]{64}")) {
+                    Logger.d("chunk manifest: bad hash at line %d", i + 1);
+                    return null;
+                }
+                hashes.add(hash);
+            }
+            if (hashes.isEmpty()) return null;
+            return new ChunkManifest(blockSize, hashes);
+        } catch (NumberFormatException e) {
+            Logger.ex(e);
+            return null;
+        }
+    }
+
+    public long getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * @return whether this manifest describes a file of the given length
+     */
+    public boolean covers(long length) {
+        return mHashes.size() == (length + mBlockSize - 1) / mBlockSize;
+    }
+
+    /**
+     * @param start first byte of the block
+     * @param sha256 hex digest of the block
+     */
+    public boolean matches(long start, String sha256) {
+        if (start % mBlockSize != 0) return false;
+        final long block = start / mBlockSize;
+        return block < mHashes.size() && mHashes.get((int) block).equals(sha256);
+    }
+}
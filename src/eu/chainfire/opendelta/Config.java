@@ -62,6 +62,7 @@ public class Config {
     private final String url_base_update;
     private final String url_base;
     private final String url_base_sum;
+    private final List<String> url_mirrors;
     private final String url_base_suffix;
     private final boolean support_ab_perf_mode;
     private final boolean use_twrp;
@@ -70,6 +71,11 @@ public class Config {
     private final String url_base_json;
     private final String url_api_history;
     private final String android_version;
+    private final int download_segments;
+    private final String http_transport;
+    private final long download_rate_metered;
+    private final long download_rate_unmetered;
+    private final long download_rate_active;
 
     private Config(Context context) {
         prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -96,6 +102,11 @@ public class Config {
         url_base_sum = String.format(
                 res.getString(R.string.url_base_full_sum), property_device);
         url_base_suffix = res.getString(R.string.url_base_suffix);
+        url_mirrors = new ArrayList<>();
+        for (String mirror : res.getStringArray(R.array.url_mirrors)) {
+            if (!mirror.isEmpty())
+                url_mirrors.add(String.format(mirror, property_device));
+        }
         support_ab_perf_mode = res.getBoolean(R.bool.support_ab_perf_mode);
         use_twrp = res.getBoolean(R.bool.use_twrp);
         url_branch_name = res.getString(R.string.url_branch_name);
@@ -109,6 +120,14 @@ public class Config {
                 res.getString(R.string.android_version));
         filename_base_prefix = String.format(Locale.ENGLISH,
                 res.getString(R.string.filename_base), android_version);
+        download_segments = Math.max(1, res.getInteger(R.integer.download_segments));
+        http_transport = res.getString(R.string.http_transport);
+        download_rate_metered = Math.max(0, res.getInteger(R.integer.download_rate_metered))
+                * 1024L;
+        download_rate_unmetered = Math.max(0, res.getInteger(R.integer.download_rate_unmetered))
+                * 1024L;
+        download_rate_active = Math.max(0, res.getInteger(R.integer.download_rate_active))
+                * 1024L;
 
         Logger.d("property_version: %s", property_version);
         Logger.d("property_device: %s", property_device);
@@ -119,10 +138,16 @@ public class Config {
         Logger.d("url_base_update: %s", url_base_update);
         Logger.d("url_base: %s", url_base);
         Logger.d("url_base_sum: %s", url_base_sum);
+        Logger.d("url_mirrors: %s", url_mirrors);
         Logger.d("url_branch_name: %s", url_branch_name);
         Logger.d("url_base_json: %s", url_base_json);
         Logger.d("url_api_history: %s", url_api_history);
         Logger.d("use_twrp: %d", use_twrp ? 1 : 0);
+        Logger.d("download_segments: %d", download_segments);
+        Logger.d("http_transport: %s", http_transport);
+        Logger.d("download_rate_metered: %d", download_rate_metered);
+        Logger.d("download_rate_unmetered: %d", download_rate_unmetered);
+        Logger.d("download_rate_active: %d", download_rate_active);
     }
 
     public String getFilenameBase() {
@@ -153,6 +178,13 @@ public class Config {
         return url_base_suffix;
     }
 
+    /**
+     * @return additional URL bases for the full zip files, like getUrlBase()
+     */
+    public List<String> getUrlMirrors() {
+        return url_mirrors;
+    }
+
     public boolean getUseTWRP() {
         return use_twrp;
     }
@@ -242,6 +274,29 @@ public class Config {
         return android_version;
     }
 
+    public int getDownloadSegments() {
+        return download_segments;
+    }
+
+    public String getHttpTransport() {
+        return http_transport;
+    }
+
+    /**
+     * @return bytes per second for automatic downloads, 0 for no limit
+     */
+    public long getDownloadRate(boolean metered) {
+        return metered ? download_rate_metered : download_rate_unmetered;
+    }
+
+    /**
+     * @return bytes per second for automatic downloads while the screen is
+     *         on, 0 to not back off
+     */
+    public long getDownloadRateActive() {
+        return download_rate_active;
+    }
+
     public static boolean isABDevice() {
         return SystemProperties.getBoolean(PROP_AB_DEVICE, false);
     }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.util.Locale;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Contents of a .delta file, which is named after the build it applies to:
+ * "in" is that build, "update" patches its decompressed (store) form into
+ * the store form of "out", and "signature" turns that into the official,
+ * signed "out" ZIP. Files are described by "size" and "md5" keys, as
+ * opendelta.sh writes them; a "sha256" key next to them is preferred.
+ */
+class DeltaInfo {
+    public static class FileSizeDigest {
+        public final long size;
+        // MessageDigest algorithm of digest
+        public final String algorithm;
+        public final String digest;
+
+        private FileSizeDigest(JSONObject object, String suffix) throws JSONException {
+            size = object.getLong("size" + suffix);
+            if (object.has("sha256" + suffix)) {
+                algorithm = "SHA-256";
+                digest = object.getString("sha256" + suffix).toLowerCase(Locale.ENGLISH);
+            } else {
+                algorithm = "MD5";
+                digest = object.getString("md5" + suffix).toLowerCase(Locale.ENGLISH);
+            }
+        }
+
+        public boolean isSHA256() {
+            return "SHA-256".equals(algorithm);
+        }
+    }
+
+    public static class FileFull {
+        public final String name;
+        public final FileSizeDigest store;
+        public final FileSizeDigest official;
+
+        private FileFull(JSONObject object) throws JSONException {
+            name = object.getString("name");
+            store = new FileSizeDigest(object, "_store");
+            official = new FileSizeDigest(object, "_official");
+        }
+    }
+
+    public static class FileUpdate {
+        public final String name;
+        public final FileSizeDigest update;
+        public final FileSizeDigest applied;
+
+        private FileUpdate(JSONObject object) throws JSONException {
+            name = object.getString("name");
+            update = new FileSizeDigest(object, "");
+            applied = new FileSizeDigest(object, "_applied");
+        }
+    }
+
+    private final int mVersion;
+    private final FileFull mIn;
+    private final FileUpdate mUpdate;
+    private final FileUpdate mSignature;
+    private final FileFull mOut;
+
+    private DeltaInfo(JSONObject object) throws JSONException {
+        mVersion = object.getInt("version");
+        mIn = new FileFull(object.getJSONObject("in"));
+        mUpdate = new FileUpdate(object.getJSONObject("update"));
+        mSignature = new FileUpdate(object.getJSONObject("signature"));
+        mOut = new FileFull(object.getJSONObject("out"));
+    }
+
+    /**
+     * @return parsed delta, or null if it is missing or malformed
+     */
+    public static DeltaInfo fromString(String json) {
+        if (json == null) return null;
+        try {
+            return new DeltaInfo(new JSONObject(json));
+        } catch (JSONException e) {
+            Logger.ex(e);
+            return null;
+        }
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public FileFull getIn() {
+        return mIn;
+    }
+
+    public FileUpdate getUpdate() {
+        return mUpdate;
+    }
+
+    public FileUpdate getSignature() {
+        return mSignature;
+    }
+
+    public FileFull getOut() {
+        return mOut;
+    }
+}
@@ -23,28 +23,51 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.StatFs;
 import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
 import android.preference.PreferenceManager;
 
 import eu.chainfire.opendelta.UpdateService.ProgressListener;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Download {
     private static final int HTTP_READ_TIMEOUT = 30000;
     private static final int HTTP_CONNECTION_TIMEOUT = 30000;
     private static final String DIGEST_ALGO = "SHA-256";
+    private static final long SEGMENT_CHUNK_SIZE = 8L * 1024L * 1024L;
+    private static final int SEGMENT_MAX_RETRIES = 3;
+    private static final int STRING_BUFFER_SIZE = 16 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_STRING_SIZE = 8 * 1024 * 1024;
+
+    private static volatile HttpTransport sTransport = new UrlConnectionTransport();
 
     public static final int STATUS_DOWNLOAD_STOP = 0;
     public static final int STATUS_DOWNLOAD_PAUSE = 1;
@@ -57,45 +80,96 @@ public class Download {
     private final String mURL;
     private final File mFile;
     private final String mMatchSUM;
+    private final ChunkManifest mManifest;
     private final UpdateService mUpdateService;
     private boolean mIsRunning = false;
-    private int mStatus = -1;
+    private volatile int mStatus = -1;
+    // contiguous bytes of the .part file on disk, for FollowingInputStream
+    private volatile long mAvailable = 0;
+    private volatile boolean mFinished = false;
+    private List<String> mMirrors = null;
+    private volatile MirrorSelector mSelector = null;
+    private RateLimiter mRateLimiter = null;
 
     private final State mState;
     private final SharedPreferences mPrefs;
 
     public Download(String url, File file, String matchSUM, UpdateService us) {
+        this(url, file, matchSUM, null, us);
+    }
+
+    public Download(String url, File file, String matchSUM, ChunkManifest manifest,
+            UpdateService us) {
         mURL = url;
         mFile = file;
         mMatchSUM = matchSUM;
+        mManifest = manifest;
         mUpdateService = us;
         mState = State.getInstance();
         mPrefs = PreferenceManager.getDefaultSharedPreferences(us);
     }
 
+    /**
+     * @param mirrors other urls serving the same file, the fastest one is used
+     */
+    public void setMirrors(List<String> mirrors) {
+        mMirrors = mirrors;
+    }
+
+    /**
+     * @param rateLimiter paces the download, or null to go at full speed
+     */
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        mRateLimiter = rateLimiter;
+    }
+
     public String asString() {
         return asString(mURL);
     }
 
+    public static void setTransport(HttpTransport transport) {
+        Logger.d("transport: %s", transport);
+        sTransport = transport;
+    }
+
     public static String asString(String url) {
+        return asString(url, false);
+    }
+
+    /**
+     * @param immutable whether the content at url never changes, like
+     * anything addressed by commit SHA. Such responses are cached for good
+     * and never requested again.
+     */
+    public static String asString(String url, boolean immutable) {
+        final HttpCache cache = HttpCache.getInstance();
+        final HttpCache.Entry cached = cache != null ? cache.get(url) : null;
+        if (cached != null && cached.immutable) {
+            Logger.d("download as string: %s (cached)", url);
+            cache.touch(url);
+            return cached.body;
+        }
         Logger.d("download as string: %s", url);
 
-        HttpsURLConnection urlConnection = null;
+        HttpURLConnection urlConnection = null;
         try {
-            urlConnection = setupHttpsRequest(url);
+            urlConnection = setupHttpsRequest(url, 0, -1, cached);
             if (urlConnection == null) return null;
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Logger.d("not modified: %s", url);
+                cache.touch(url);
+                return cached.body;
+            }
 
-            InputStream is = urlConnection.getInputStream();
-            ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
-            int byteInt;
-
-            while((byteInt = is.read()) >= 0)
-                byteArray.write(byteInt);
-
-            byte[] bytes = byteArray.toByteArray();
-            if (bytes == null) return null;
-
-            return new String(bytes, StandardCharsets.UTF_8);
+            final String body = readString(urlConnection);
+            if (body == null) return null;
+            if (cache != null) {
+                final String eTag = urlConnection.getHeaderField("ETag");
+                final String lastModified = urlConnection.getHeaderField("Last-Modified");
+                if (immutable || eTag != null || lastModified != null)
+                    cache.put(new HttpCache.Entry(url, eTag, lastModified, immutable, body));
+            }
+            return body;
         } catch (Exception e) {
             // Download failed for any number of reasons, timeouts, connection
             // drops, etc. Just log it in debugging mode.
@@ -103,8 +177,41 @@ public class Download {
             return null;
         } finally {
             if (urlConnection != null)
-                urlConnection.disconnect();
+                release(urlConnection);
+        }
+    }
+
+    /**
+     * Reads the whole response in bulk into a buffer sized after its
+     * Content-Length, and decodes it once
+     *
+     * @return the body, or null if it is larger than MAX_STRING_SIZE
+     */
+    private static String readString(HttpURLConnection urlConnection) throws IOException {
+        final long length = urlConnection.getContentLengthLong();
+        if (length > MAX_STRING_SIZE) {
+            Logger.d("response too large: %d", length);
+            return null;
+        }
+        byte[] bytes = new byte[length > 0 ? (int) length : STRING_BUFFER_SIZE];
+        int pos = 0;
+        try (InputStream is = urlConnection.getInputStream()) {
+            int r;
+            while ((r = is.read(bytes, pos, bytes.length - pos)) >= 0) {
+                pos += r;
+                if (pos < bytes.length) continue;
+                final int next = is.read();
+                if (next < 0) break;
+                // Content-Length was missing or wrong, grow within the cap
+                if (bytes.length >= MAX_STRING_SIZE) {
+                    Logger.d("response too large: more than %d", MAX_STRING_SIZE);
+                    return null;
+                }
+                bytes = Arrays.copyOf(bytes, Math.min(bytes.length * 2, MAX_STRING_SIZE));
+                bytes[pos++] = (byte) next;
+            }
         }
+        return new String(bytes, 0, pos, StandardCharsets.UTF_8);
     }
 
     public long getSize() {
@@ -114,12 +221,20 @@ public class Download {
     public static long getSize(String url) {
         Logger.d("getSize: %s", url);
 
-        HttpsURLConnection urlConnection = null;
+        HttpURLConnection urlConnection = null;
         try {
+            urlConnection = setupHttpsRequest(url, "HEAD", 0, -1, null);
+            if (urlConnection != null) {
+                final long size = urlConnection.getContentLengthLong();
+                release(urlConnection);
+                urlConnection = null;
+                if (size >= 0) return size;
+            }
+            // not every mirror answers HEAD, fall back to reading the headers of a GET
             urlConnection = setupHttpsRequest(url);
             if (urlConnection == null) return 0;
 
-            return urlConnection.getContentLength();
+            return urlConnection.getContentLengthLong();
         } catch (Exception e) {
             // Download failed for any number of reasons, timeouts, connection
             // drops, etc. Just log it in debugging mode.
@@ -132,68 +247,144 @@ public class Download {
     }
 
     public boolean start() {
+        mAvailable = 0;
+        mFinished = false;
+        try {
+            return download();
+        } finally {
+            mFinished = true;
+        }
+    }
+
+    private boolean download() {
         mStatus = -1;
         Logger.d("download: %s", mURL);
 
-        HttpsURLConnection urlConnection = null;
+        HttpURLConnection urlConnection = null;
         InputStream is = null;
-        FileOutputStream os = null;
-        MessageDigest digest = null;
+        RandomAccessFile raf = null;
+        DownloadJournal journal = null;
         long len = 0;
-        if (mMatchSUM != null) {
-            try {
-                digest = MessageDigest.getInstance(DIGEST_ALGO);
-            } catch (NoSuchAlgorithmException e) {
-                // No SHA-256 algorithm support
-                Logger.ex(e);
-            }
-        }
 
-        long lastTime = SystemClock.elapsedRealtime();
+        ThroughputEstimator estimator = null;
         long offset = 0;
-        if (mFile.exists()) offset = mFile.length();
 
         try {
             final String userFN = mFile.getName().substring(0, mFile.getName().length() - 5);
             mState.update(State.ACTION_DOWNLOADING, 0f, 0L, 0L, userFN, null);
-            urlConnection = setupHttpsRequest(mURL);
-            if (urlConnection == null) return false;
 
-            len = urlConnection.getContentLength();
+            // only the full zip has mirrors to race, a single url is used as is
+            if (mSelector == null && mMirrors != null && !mMirrors.isEmpty()) {
+                final List<String> urls = new ArrayList<>();
+                urls.add(mURL);
+                urls.addAll(mMirrors);
+                mSelector = MirrorSelector.probe(urls);
+            }
+            String source = getSource();
+
+            // when resuming, ask for the rest right away and learn the total
+            // length from Content-Range, instead of probing first
+            long knownLen = DownloadJournal.getLength(mFile);
+            if (knownLen <= 0 && mSelector != null && mManifest == null && !mFile.exists())
+                knownLen = writeProbedHead();
+            long requested = 0;
+            if (knownLen > 0) {
+                requested = getResumeOffset(DownloadJournal.load(mFile, knownLen), knownLen);
+                if (requested < knownLen)
+                    urlConnection = setupHttpsRequest(source, requested);
+                else
+                    urlConnection = setupHttpsRequest(source, "HEAD", 0, -1, null);
+            }
+            if (urlConnection == null) {
+                requested = 0;
+                urlConnection = setupHttpsRequest(source);
+                if (urlConnection == null) return false;
+            }
+            final boolean partial =
+                    urlConnection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+            final boolean hasBody = !"HEAD".equals(urlConnection.getRequestMethod());
+
+            len = partial ? getContentRangeTotal(urlConnection)
+                          : urlConnection.getContentLengthLong();
             mPrefs.edit().putLong(UpdateService.PREF_DOWNLOAD_SIZE, len).apply();
-            if (offset > 0 && offset < len) {
+            journal = DownloadJournal.load(mFile, len);
+            ChunkManifest manifest = mManifest;
+            if (manifest != null && !manifest.covers(len)) {
+                Logger.d("chunk manifest does not match download size, ignoring");
+                manifest = null;
+            }
+            final long chunkSize = manifest != null ? manifest.getBlockSize()
+                                                    : SEGMENT_CHUNK_SIZE;
+            offset = getResumeOffset(journal, len);
+            final long completed = journal.getCompletedBytes();
+            final int segments = Config.getInstance(mUpdateService).getDownloadSegments();
+            final boolean segmented = segments > 1
+                    && (len - completed > chunkSize || completed > offset)
+                    && (partial || "bytes".equalsIgnoreCase(
+                            urlConnection.getHeaderField("Accept-Ranges")));
+            if (segmented || offset >= len) {
+                // each segment opens its own ranged connection
                 urlConnection.disconnect();
-                urlConnection = setupHttpsRequest(mURL, offset);
-                if (urlConnection == null) return false;
-                Logger.d("Resuming download at: " + offset);
+                urlConnection = null;
+            } else {
+                if (completed > offset) {
+                    // a single stream can only continue the contiguous prefix,
+                    // whatever is on disk past it gets overwritten
+                    journal.truncate(offset);
+                }
+                if (!hasBody || offset != requested) {
+                    urlConnection.disconnect();
+                    urlConnection = offset > 0 ? setupHttpsRequest(source, offset)
+                                               : setupHttpsRequest(source);
+                    if (urlConnection == null) return false;
+                }
+                if (offset > 0) Logger.d("Resuming download at: " + offset);
             }
 
+            mAvailable = Math.min(offset, len);
             mState.update(State.ACTION_DOWNLOADING, 0f, 0L, len, userFN, null);
 
             long freeSpace = (new StatFs(Config.getInstance(mUpdateService).getPathBase()))
                     .getAvailableBytes();
-            if (freeSpace < len - offset) {
-                mState.update(State.ERROR_DISK_SPACE, null, freeSpace, len, null,
-                        null);
-                Logger.d("not enough space!");
-                return false;
+            if (offset < len) {
+                raf = new RandomAccessFile(mFile, "rw");
+                if (freeSpace < len - Math.max(completed, getAllocatedBytes(mFile))
+                        || !preallocate(raf, len)) {
+                    mState.update(State.ERROR_DISK_SPACE, null, freeSpace, len, null,
+                            null);
+                    Logger.d("not enough space!");
+                    return false;
+                }
+                // from here on the file length says nothing about progress,
+                // make sure a journal does
+                journal.save();
+                if (segmented) {
+                    // segments open the file themselves
+                    raf.close();
+                    raf = null;
+                }
             }
 
-            if (offset > 0)
-                lastTime -= mPrefs.getLong(UpdateService.PREF_LAST_DOWNLOAD_TIME, 0);
-            final long[] last = new long[] { 0, len, 0, lastTime };
+            // time spent on the bytes we already have carries over
+            final long done = journal.getCompletedBytes();
+            estimator = new ThroughputEstimator(done, done > 0
+                    ? mPrefs.getLong(UpdateService.PREF_LAST_DOWNLOAD_TIME, 0) : 0);
+            final ThroughputEstimator _estimator = estimator;
+            final long[] last = new long[] { 0, len, 0 };
             ProgressListener progressListener = new ProgressListener() {
                 @Override
                 public void onProgress(float progress, long current, long total) {
                     current += last[0];
                     total = last[1];
                     progress = ((float) current / (float) total) * 100f;
+                    _estimator.update(current);
                     long now = SystemClock.elapsedRealtime();
                     if (now >= last[2] + 250L) {
+                        final long rate = _estimator.getRate();
+                        final long eta = _estimator.getEta(total);
                         mState.update(State.ACTION_DOWNLOADING, progress,
-                                current, total, userFN, now - last[3]);
-                        mUpdateService.setDownloadNotificationProgress(progress, current,
-                                total, now - last[3]);
+                                current, total, userFN, _estimator.getActiveMs(), rate, eta);
+                        mUpdateService.setDownloadNotificationProgress(progress, rate, eta);
                         last[2] = now;
                     }
                 }
@@ -206,36 +397,105 @@ public class Download {
             long recv = offset;
             if ((len > 0) && (len < 4L * 1024L * 1024L * 1024L)) {
                 mIsRunning = true;
-                byte[] buffer = new byte[262144];
-
-                is = urlConnection.getInputStream();
-                os = new FileOutputStream(mFile, offset > 0);
-                int r;
-                while ((r = is.read(buffer)) > 0) {
-                    if (mStatus >= 0) {
+                final ResumableSHA256 digest = journal.getDigest();
+                if (offset < len && digest.getCount() < journal.getContiguousBytes()) {
+                    // journaled without digest state, hash what is already there
+                    // before the clock starts, it is no transfer time
+                    try (FileInputStream fis = new FileInputStream(mFile)) {
+                        advanceDigest(fis.getChannel(), journal, digest,
+                                ByteBuffer.allocateDirect(BUFFER_SIZE));
+                    }
+                }
+                estimator.start(done);
+                if (segmented) {
+                    Logger.d("Segmented download with %d connections, %d bytes done",
+                            segments, completed);
+                    if (!downloadSegmented(journal, digest, manifest, chunkSize, segments,
+                            progressListener))
                         return false;
+                } else if (offset < len) {
+                    // one direct buffer feeds the file and both digests
+                    final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                    final MessageDigest chunkDigest = manifest != null
+                            ? MessageDigest.getInstance(DIGEST_ALGO) : null;
+                    is = urlConnection.getInputStream();
+                    ReadableByteChannel in = Channels.newChannel(is);
+                    final FileChannel channel = raf.getChannel();
+                    long saved = recv;
+                    long chunkEnd = Math.min((recv / chunkSize + 1) * chunkSize, len);
+                    long sampled = recv;
+                    long sampleStart = SystemClock.elapsedRealtime();
+                    int r;
+                    while ((r = in.read(buffer)) > 0) {
+                        if (mStatus >= 0) {
+                            // unverified data past the last block is dropped on resume
+                            if (manifest == null)
+                                checkpoint(channel, journal, saved, recv, digest);
+                            return false;
+                        }
+                        if (mRateLimiter != null) mRateLimiter.acquire(r);
+                        buffer.flip();
+                        for (long at = recv; buffer.hasRemaining(); )
+                            at += channel.write(buffer, at);
+                        buffer.rewind();
+                        while (buffer.hasRemaining()) {
+                            final int n = (int) Math.min(buffer.remaining(), chunkEnd - recv);
+                            buffer.limit(buffer.position() + n);
+                            if (chunkDigest != null) chunkDigest.update(buffer.duplicate());
+                            digest.update(buffer);
+                            buffer.limit(r);
+                            recv += n;
+                            if (recv == chunkEnd) {
+                                if (chunkDigest != null)
+                                    verifyChunk(manifest, saved, chunkDigest);
+                                checkpoint(channel, journal, saved, recv, digest);
+                                saved = recv;
+                                chunkEnd = Math.min(recv + chunkSize, len);
+                            }
+                        }
+                        buffer.clear();
+                        mAvailable = recv;
+
+                        if (mSelector != null && saved - sampled >= chunkSize) {
+                            // rate every chunk, and carry on elsewhere if it was slow
+                            final long now = SystemClock.elapsedRealtime();
+                            mSelector.report(source, saved - sampled, now - sampleStart);
+                            sampled = saved;
+                            sampleStart = now;
+                            if (!source.equals(getSource()) && recv < len) {
+                                urlConnection.disconnect();
+                                source = getSource();
+                                urlConnection = setupHttpsRequest(source, recv);
+                                if (urlConnection == null) {
+                                    mSelector.fail(source);
+                                    source = getSource();
+                                    urlConnection = setupHttpsRequest(source, recv);
+                                }
+                                if (urlConnection == null)
+                                    throw new IOException("No mirror to continue at " + recv);
+                                is = urlConnection.getInputStream();
+                                in = Channels.newChannel(is);
+                            }
+                        }
+
+                        progressListener.onProgress(
+                                ((float) recv / (float) len) * 100f,
+                                recv, len);
+                    }
+                    if (recv != len)
+                        throw new IOException("Download ended at " + recv + " of " + len);
+                } else if (digest.getCount() < len) {
+                    try (FileInputStream fis = new FileInputStream(mFile)) {
+                        advanceDigest(fis.getChannel(), journal, digest,
+                                ByteBuffer.allocateDirect(BUFFER_SIZE));
                     }
-                    os.write(buffer, 0, r);
-                    if (offset == 0 && digest != null)
-                        digest.update(buffer, 0, r);
-
-                    recv += r;
-                    progressListener.onProgress(
-                            ((float) recv / (float) len) * 100f,
-                            recv, len);
                 }
 
-                String sumStr;
-                if (offset > 0) {
-                    final ProgressListener listener = mUpdateService.getSUMProgress(
-                            State.ACTION_CHECKING_SUM, mFile.getName());
-                    sumStr = UpdateService.getFileSHA256(mFile, listener);
-                } else {
-                    if (digest == null) return false;
-                    sumStr = digestToHexString(digest);
-                }
-                boolean sumCheck = sumStr.equals(mMatchSUM);
+                String sumStr = digest.digestToHexString();
+                // null if the caller verifies the file itself
+                boolean sumCheck = mMatchSUM == null || sumStr.equals(mMatchSUM);
                 Logger.d("sumStr=" + sumStr + " matchSUM=" + mMatchSUM);
+                journal.delete();
                 if (!sumCheck) {
                     mIsRunning = false;
                     Logger.i("SUM check failed for " + mURL);
@@ -251,17 +511,316 @@ public class Download {
             // drops, etc. Just log it in debugging mode.
             mIsRunning = false;
             Logger.ex(e);
-            mPrefs.edit().putLong(UpdateService.PREF_LAST_DOWNLOAD_TIME,
-                    SystemClock.elapsedRealtime() - lastTime).apply();
             if (urlConnection != null) urlConnection.disconnect();
             try { if (is != null) is.close(); } catch (IOException ignored) {}
-            try { if (os != null) os.close(); } catch (IOException ignored) {}
+            try { if (raf != null) raf.close(); } catch (IOException ignored) {}
             return false;
         } finally {
             mIsRunning = false;
+            if (estimator != null) {
+                // also on pause and stop, so a resume continues the clock
+                estimator.pause();
+                mPrefs.edit().putLong(UpdateService.PREF_LAST_DOWNLOAD_TIME,
+                        estimator.getActiveMs()).apply();
+                Logger.d("download: %d ms active, average %d B/s, recent %d B/s",
+                        estimator.getActiveMs(), estimator.getAverageRate(),
+                        estimator.getRate());
+            }
             if (urlConnection != null) urlConnection.disconnect();
             try { if (is != null) is.close(); } catch (IOException ignored) {}
-            try { if (os != null) os.close(); } catch (IOException ignored) {}
+            try { if (raf != null) raf.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Flushes [from, to) of a sequential download to storage and records it,
+     * together with the digest state, in the journal.
+     */
+    private static void checkpoint(FileChannel channel, DownloadJournal journal,
+            long from, long to, ResumableSHA256 digest) throws IOException {
+        if (to <= from) return;
+        channel.force(false);
+        journal.addRange(from, to);
+        journal.setDigest(digest);
+        journal.save();
+    }
+
+    /**
+     * Reserves len bytes for the .part file up front, so running out of
+     * space shows up now instead of at 90%, and the file ends up in few
+     * extents. Where the filesystem can't fallocate, a sparse setLength is
+     * the best we can do.
+     *
+     * @return false if there is not enough space
+     */
+    private static boolean preallocate(RandomAccessFile raf, long len) throws IOException {
+        if (raf.length() > len) raf.setLength(len);
+        try {
+            Os.posix_fallocate(raf.getFD(), 0, len);
+            return true;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.ENOSPC) return false;
+            Logger.d("fallocate failed (%d), falling back to setLength", e.errno);
+        }
+        if (raf.length() < len) raf.setLength(len);
+        return true;
+    }
+
+    /**
+     * @return bytes actually allocated to the file, which is less than its
+     *         length if it is sparse
+     */
+    private static long getAllocatedBytes(File file) {
+        try {
+            return Os.stat(file.getPath()).st_blocks * 512L;
+        } catch (ErrnoException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Compares a finished block against the manifest, a mismatch fails the
+     * current attempt so only that block is fetched again.
+     */
+    private static void verifyChunk(ChunkManifest manifest, long start,
+            MessageDigest chunkDigest) throws IOException {
+        final String sum = digestToHexString(chunkDigest);
+        if (!manifest.matches(start, sum))
+            throw new IOException("Block at " + start + " failed verification: " + sum);
+    }
+
+    /**
+     * Feeds the completed bytes following digest.getCount() from disk into
+     * the digest, and records the new state in the journal.
+     */
+    private static void advanceDigest(FileChannel channel, DownloadJournal journal,
+            ResumableSHA256 digest, ByteBuffer buffer) throws IOException {
+        long pos = digest.getCount();
+        final long end = journal.getRangeEnd(pos);
+        if (end <= pos) return;
+        while (pos < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - pos));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, pos + buffer.position()) < 0)
+                    throw new IOException("Unexpected end of file at " + pos);
+            }
+            buffer.flip();
+            pos += buffer.remaining();
+            digest.update(buffer);
+        }
+        journal.setDigest(digest);
+    }
+
+    /**
+     * Fetches the chunks of the .part file not yet recorded in the journal as
+     * chunkSize byte ranges spread over multiple connections, written in
+     * place. Every finished chunk is verified against the manifest if there
+     * is one, then flushed and journaled, and the digest follows the
+     * contiguous prefix so the final check needs no second pass.
+     */
+    private boolean downloadSegmented(DownloadJournal journal, ResumableSHA256 digest,
+            ChunkManifest manifest, long chunkSize, int segments,
+            ProgressListener progressListener) throws IOException, InterruptedException {
+        final long len = journal.getLength();
+        final List<Long> pending = new ArrayList<>();
+        for (long start = 0; start < len; start += chunkSize) {
+            if (!journal.isComplete(start, Math.min(start + chunkSize, len)))
+                pending.add(start);
+        }
+        final AtomicInteger nextChunk = new AtomicInteger(0);
+        final AtomicLong recv = new AtomicLong(journal.getCompletedBytes());
+        final IOException[] error = new IOException[1];
+        final ReentrantLock hashLock = new ReentrantLock();
+
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            if (raf.length() != len) raf.setLength(len);
+            final FileChannel channel = raf.getChannel();
+            final int workers = Math.min(segments, pending.size());
+            if (workers > 0) {
+                final ExecutorService executor = Executors.newFixedThreadPool(workers);
+                for (int i = 0; i < workers; i++) {
+                    executor.execute(() -> {
+                        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                        final MessageDigest chunkDigest;
+                        try {
+                            chunkDigest = manifest != null
+                                    ? MessageDigest.getInstance(DIGEST_ALGO) : null;
+                        } catch (NoSuchAlgorithmException e) {
+                            Logger.ex(e);
+                            synchronized (error) {
+                                if (error[0] == null) error[0] = new IOException(e);
+                            }
+                            return;
+                        }
+                        int chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < pending.size()) {
+                            // without blocks to verify, skip what is there already,
+                            // like the probed head of a fresh download
+                            final long start = manifest == null
+                                    ? journal.getRangeEnd(pending.get(chunk))
+                                    : pending.get(chunk);
+                            final long end = Math.min(pending.get(chunk) + chunkSize, len) - 1;
+                            int tries = 0;
+                            while (true) {
+                                synchronized (error) {
+                                    if (error[0] != null) return;
+                                }
+                                if (mStatus >= 0) return;
+                                try {
+                                    if (downloadSegment(channel, start, end, buffer,
+                                            manifest, chunkDigest, recv, len,
+                                            progressListener)) {
+                                        channel.force(false);
+                                        journal.addRange(start, end + 1);
+                                        mAvailable = journal.getContiguousBytes();
+                                        // whoever is idle pulls the digest forward
+                                        if (hashLock.tryLock()) {
+                                            try {
+                                                advanceDigest(channel, journal, digest, buffer);
+                                            } finally {
+                                                hashLock.unlock();
+                                            }
+                                        }
+                                        journal.save();
+                                    }
+                                    break;
+                                } catch (IOException e) {
+                                    Logger.ex(e);
+                                    if (++tries < SEGMENT_MAX_RETRIES) {
+                                        Logger.d("retrying segment %d-%d", start, end);
+                                        continue;
+                                    }
+                                    synchronized (error) {
+                                        if (error[0] == null) error[0] = e;
+                                    }
+                                    return;
+                                }
+                            }
+                        }
+                    });
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    if (mStatus >= 0) executor.shutdownNow();
+                }
+            }
+
+            hashLock.lock();
+            try {
+                advanceDigest(channel, journal, digest, ByteBuffer.allocateDirect(BUFFER_SIZE));
+            } finally {
+                hashLock.unlock();
+            }
+            journal.save();
+            final boolean complete = journal.isComplete(0, len);
+            if (!complete) {
+                Logger.d("Segmented download interrupted, %d of %d bytes kept",
+                        journal.getCompletedBytes(), len);
+            }
+            synchronized (error) {
+                if (error[0] != null) throw error[0];
+            }
+            return complete && mStatus < 0;
+        }
+    }
+
+    private boolean downloadSegment(FileChannel channel, long start, long end, ByteBuffer buffer,
+            ChunkManifest manifest, MessageDigest chunkDigest, AtomicLong recv, long len,
+            ProgressListener progressListener) throws IOException {
+        final String source = getSource();
+        final long started = SystemClock.elapsedRealtime();
+        HttpURLConnection urlConnection = setupHttpsRequest(source, start, end);
+        if (urlConnection == null) {
+            if (mSelector != null) mSelector.fail(source);
+            throw new IOException("Failed to request segment " + start + "-" + end);
+        }
+        if (chunkDigest != null) chunkDigest.reset();
+        long pos = start;
+        boolean verified = false;
+        try (ReadableByteChannel in = Channels.newChannel(urlConnection.getInputStream())) {
+            int r;
+            while (pos <= end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end + 1 - pos));
+                if ((r = in.read(buffer)) <= 0) break;
+                if (mStatus >= 0) return false;
+                if (mRateLimiter != null) mRateLimiter.acquire(r);
+                buffer.flip();
+                if (chunkDigest != null) chunkDigest.update(buffer.duplicate());
+                while (buffer.hasRemaining())
+                    pos += channel.write(buffer, pos);
+
+                final long current = recv.addAndGet(r);
+                synchronized (progressListener) {
+                    progressListener.onProgress(
+                            ((float) current / (float) len) * 100f, current, len);
+                }
+            }
+            if (pos != end + 1)
+                throw new IOException("Short read for segment " + start + "-" + end);
+            if (chunkDigest != null) verifyChunk(manifest, start, chunkDigest);
+            verified = true;
+        } finally {
+            // the next chunk reuses a fully read connection
+            if (verified) release(urlConnection);
+            else urlConnection.disconnect();
+            // partial or corrupt segments are fetched again as a whole
+            if (!verified) recv.addAndGet(start - pos);
+            if (mSelector != null) {
+                if (verified)
+                    mSelector.report(source, end + 1 - start,
+                            SystemClock.elapsedRealtime() - started);
+                else if (mStatus < 0)
+                    mSelector.fail(source);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a stream over the .part file that follows the download as it
+     *         lands on disk, in order, and ends when start() returns
+     */
+    public InputStream getFollowingStream() {
+        return new FollowingInputStream();
+    }
+
+    private class FollowingInputStream extends InputStream {
+        private FileInputStream mStream;
+        private long mPos;
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) > 0 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            long available;
+            while ((available = mAvailable) <= mPos) {
+                if (mFinished) {
+                    // the last update may have raced with the flag
+                    if ((available = mAvailable) <= mPos) return -1;
+                    break;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (mStream == null) mStream = new FileInputStream(mFile);
+            final int r = mStream.read(b, off, (int) Math.min(len, available - mPos));
+            if (r > 0) mPos += r;
+            return r;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mStream != null) mStream.close();
         }
     }
 
@@ -288,32 +847,63 @@ public class Download {
         return mStatus;
     }
 
-    private static HttpsURLConnection setupHttpsRequest(String urlStr) {
+    private static HttpURLConnection setupHttpsRequest(String urlStr) {
         return setupHttpsRequest(urlStr, 0);
     }
 
-    private static HttpsURLConnection setupHttpsRequest(String urlStr, long offset) {
+    private static HttpURLConnection setupHttpsRequest(String urlStr, long offset) {
+        return setupHttpsRequest(urlStr, offset, -1);
+    }
+
+    static HttpURLConnection setupHttpsRequest(String urlStr, long offset, long end) {
+        return setupHttpsRequest(urlStr, offset, end, null);
+    }
+
+    /**
+     * @param cached if not null, the request is made conditional on it and
+     * a 304 response is accepted as well
+     */
+    private static HttpURLConnection setupHttpsRequest(String urlStr, long offset, long end,
+            HttpCache.Entry cached) {
+        return setupHttpsRequest(urlStr, "GET", offset, end, cached);
+    }
+
+    private static HttpURLConnection setupHttpsRequest(String urlStr, String method,
+            long offset, long end, HttpCache.Entry cached) {
         URL url;
-        HttpsURLConnection urlConnection;
+        HttpURLConnection urlConnection;
         try {
             url = new URL(urlStr);
-            urlConnection = (HttpsURLConnection) url.openConnection();
+            urlConnection = sTransport.openConnection(url);
             urlConnection.setConnectTimeout(HTTP_CONNECTION_TIMEOUT);
             urlConnection.setReadTimeout(HTTP_READ_TIMEOUT);
-            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestMethod(method);
             urlConnection.setDoInput(true);
-            if (offset > 0)
-                urlConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+            final boolean ranged = offset > 0 || end >= 0;
+            if (ranged) {
+                urlConnection.setRequestProperty("Range", "bytes=" + offset + "-"
+                        + (end >= 0 ? String.valueOf(end) : ""));
+                // offsets are into the file itself, never a compressed body
+                urlConnection.setRequestProperty("Accept-Encoding", "identity");
+            }
+            if (cached != null) {
+                if (cached.eTag != null)
+                    urlConnection.setRequestProperty("If-None-Match", cached.eTag);
+                if (cached.lastModified != null)
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
             urlConnection.connect();
             int code = urlConnection.getResponseCode();
-            if (offset > 0 && code != HttpsURLConnection.HTTP_PARTIAL) {
+            if (cached != null && code == HttpURLConnection.HTTP_NOT_MODIFIED)
+                return urlConnection;
+            if (ranged && code != HttpURLConnection.HTTP_PARTIAL) {
                 Logger.d("response: %d expected: %d", code,
-                        HttpsURLConnection.HTTP_PARTIAL);
+                        HttpURLConnection.HTTP_PARTIAL);
                 return null;
             }
-            if (offset == 0 && code != HttpsURLConnection.HTTP_OK) {
+            if (!ranged && code != HttpURLConnection.HTTP_OK) {
                 Logger.d("response: %d expected: %d", code,
-                        HttpsURLConnection.HTTP_OK);
+                        HttpURLConnection.HTTP_OK);
                 return null;
             }
             return urlConnection;
@@ -324,6 +914,69 @@ public class Download {
         }
     }
 
+    /**
+     * Lets the connection go back to the pool for the next request to the
+     * same host. Unlike disconnect(), which closes the socket, closing the
+     * drained response keeps the connection and its TLS session alive.
+     */
+    private static void release(HttpURLConnection urlConnection) {
+        try {
+            urlConnection.getInputStream().close();
+        } catch (IOException e) {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * @return total length from a "bytes start-end/total" Content-Range
+     */
+    static long getContentRangeTotal(HttpURLConnection urlConnection)
+            throws IOException {
+        final String range = urlConnection.getHeaderField("Content-Range");
+        try {
+            return Long.parseLong(range.substring(range.lastIndexOf('/') + 1).trim());
+        } catch (NullPointerException | NumberFormatException e) {
+            throw new IOException("Bad Content-Range: " + range);
+        }
+    }
+
+    private String getSource() {
+        final MirrorSelector selector = mSelector;
+        return selector != null ? selector.getUrl() : mURL;
+    }
+
+    /**
+     * Starts a fresh .part file with the bytes the probe of the chosen mirror
+     * fetched already, so the download continues after them.
+     *
+     * @return total length, or -1 if there was nothing to reuse
+     */
+    private long writeProbedHead() throws IOException {
+        final byte[] head = mSelector.takeHead();
+        final long len = mSelector.getLength();
+        if (head == null || head.length == 0 || len <= 0) return -1;
+        final DownloadJournal journal = DownloadJournal.load(mFile, len);
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            raf.write(head, 0, (int) Math.min(head.length, len));
+            raf.getFD().sync();
+        }
+        journal.addRange(0, Math.min(head.length, len));
+        journal.save();
+        Logger.d("download: reusing %d probed bytes", head.length);
+        return len;
+    }
+
+    /**
+     * @return where a single stream would continue the given journal
+     */
+    private long getResumeOffset(DownloadJournal journal, long len) {
+        long offset = journal.getContiguousBytes();
+        // blocks are only verified as a whole
+        if (mManifest != null && mManifest.covers(len))
+            offset -= offset % mManifest.getBlockSize();
+        return offset;
+    }
+
     public static String digestToHexString(MessageDigest digest) {
         final BigInteger bi = new BigInteger(1, digest.digest());
         final StringBuilder sb = new StringBuilder(
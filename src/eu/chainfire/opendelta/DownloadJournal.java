@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Small on-disk record kept next to a .part file. It holds the byte ranges
+ * that have safely landed on disk and the SHA-256 state of the contiguous
+ * prefix that has been hashed already, so resuming neither fetches nor
+ * hashes anything twice.
+ */
+class DownloadJournal {
+    public static final String SUFFIX = ".journal";
+
+    private final File mFile;
+    private final long mLength;
+    // start -> end (exclusive), never overlapping or touching
+    private final TreeMap<Long, Long> mRanges = new TreeMap<>();
+    private long mHashed;
+    private String mDigestState;
+
+    private DownloadJournal(File partFile, long length) {
+        mFile = getFile(partFile);
+        mLength = length;
+    }
+
+    public static File getFile(File partFile) {
+        return new File(partFile.getPath() + SUFFIX);
+    }
+
+    public static void delete(File partFile) {
+        getFile(partFile).delete();
+    }
+
+    /**
+     * Reads the journal of the given .part file. If there is none, or it was
+     * written for a different file size, a fresh one is returned and the
+     * .part file is discarded: it is preallocated, so its length says
+     * nothing about what was written.
+     */
+    public static DownloadJournal load(File partFile, long length) {
+        final DownloadJournal journal = new DownloadJournal(partFile, length);
+        if (!partFile.exists()) {
+            delete(partFile);
+            return journal;
+        }
+        final JSONObject object = read(partFile);
+        if (object != null) {
+            try {
+                if (object.getLong("length") == length) {
+                    final JSONArray ranges = object.getJSONArray("ranges");
+                    for (int i = 0; i < ranges.length(); i++) {
+                        final JSONObject range = ranges.getJSONObject(i);
+                        journal.addRange(range.getLong("start"), range.getLong("end"));
+                    }
+                    if (object.has("digest")) {
+                        journal.mHashed = object.getLong("hashed");
+                        journal.mDigestState = object.getString("digest");
+                    }
+                    Logger.d("journal: resuming %s with %d of %d bytes, %d hashed",
+                            partFile.getName(), journal.getCompletedBytes(), length,
+                            journal.mHashed);
+                    return journal;
+                }
+                Logger.d("journal: size mismatch for %s", partFile.getName());
+                journal.mRanges.clear();
+            } catch (JSONException e) {
+                Logger.ex(e);
+                journal.mRanges.clear();
+            }
+        }
+        Logger.d("journal: no usable journal for %s, starting over", partFile.getName());
+        partFile.delete();
+        delete(partFile);
+        return journal;
+    }
+
+    /**
+     * @return total length the journal of the given .part file was written
+     *         for, or -1 if there is none
+     */
+    public static long getLength(File partFile) {
+        if (!partFile.exists()) return -1;
+        final JSONObject object = read(partFile);
+        return object != null ? object.optLong("length", -1) : -1;
+    }
+
+    /**
+     * @return downloaded bytes of the given .part file according to its
+     *         journal, for display purposes
+     */
+    public static long getCompletedBytes(File partFile) {
+        final JSONObject object = read(partFile);
+        if (object != null) {
+            try {
+                long ret = 0;
+                final JSONArray ranges = object.getJSONArray("ranges");
+                for (int i = 0; i < ranges.length(); i++) {
+                    final JSONObject range = ranges.getJSONObject(i);
+                    ret += range.getLong("end") - range.getLong("start");
+                }
+                return ret;
+            } catch (JSONException e) {
+                Logger.ex(e);
+            }
+        }
+        return 0;
+    }
+
+    private static JSONObject read(File partFile) {
+        final File file = getFile(partFile);
+        if (!file.exists()) return null;
+        try (FileInputStream is = new FileInputStream(file)) {
+            final byte[] bytes = new byte[(int) file.length()];
+            int pos = 0, r;
+            while (pos < bytes.length && (r = is.read(bytes, pos, bytes.length - pos)) > 0)
+                pos += r;
+            return new JSONObject(new String(bytes, 0, pos, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Logger.ex(e);
+            return null;
+        }
+    }
+
+    public long getLength() {
+        return mLength;
+    }
+
+    public synchronized void addRange(long start, long end) {
+        if (end <= start) return;
+        final Map.Entry<Long, Long> before = mRanges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+        Map.Entry<Long, Long> after;
+        while ((after = mRanges.ceilingEntry(start)) != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            mRanges.remove(after.getKey());
+        }
+        mRanges.put(start, end);
+    }
+
+    public synchronized boolean isComplete(long start, long end) {
+        final Map.Entry<Long, Long> range = mRanges.floorEntry(start);
+        return range != null && range.getValue() >= end;
+    }
+
+    public synchronized long getCompletedBytes() {
+        long ret = 0;
+        for (Map.Entry<Long, Long> range : mRanges.entrySet())
+            ret += range.getValue() - range.getKey();
+        return ret;
+    }
+
+    /**
+     * @return length of the completed range starting at 0
+     */
+    public synchronized long getContiguousBytes() {
+        return getRangeEnd(0);
+    }
+
+    /**
+     * @return end of the completed range containing offset, or offset itself
+     */
+    public synchronized long getRangeEnd(long offset) {
+        final Map.Entry<Long, Long> range = mRanges.floorEntry(offset);
+        return range != null && range.getValue() > offset ? range.getValue() : offset;
+    }
+
+    /**
+     * Drops everything past offset, for when the .part file is truncated
+     */
+    public synchronized void truncate(long offset) {
+        while (!mRanges.isEmpty() && mRanges.lastKey() >= offset)
+            mRanges.remove(mRanges.lastKey());
+        if (!mRanges.isEmpty() && mRanges.lastEntry().getValue() > offset)
+            mRanges.put(mRanges.lastKey(), offset);
+        if (mHashed > offset) {
+            mHashed = 0;
+            mDigestState = null;
+        }
+    }
+
+    /**
+     * @return restored digest covering [0, getHashedBytes()), never null
+     */
+    public synchronized ResumableSHA256 getDigest() {
+        final ResumableSHA256 digest = ResumableSHA256.fromState(mDigestState);
+        if (digest == null || digest.getCount() != mHashed) {
+            mHashed = 0;
+            return new ResumableSHA256();
+        }
+        return digest;
+    }
+
+    public synchronized long getHashedBytes() {
+        return mHashed;
+    }
+
+    public synchronized void setDigest(ResumableSHA256 digest) {
+        mHashed = digest.getCount();
+        mDigestState = digest.getState();
+    }
+
+    /**
+     * Persists the journal. Data in the .part file must be flushed to
+     * storage before the ranges describing it are saved.
+     */
+    public synchronized void save() {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            final JSONObject object = new JSONObject();
+            object.put("length", mLength);
+            final JSONArray ranges = new JSONArray();
+            for (Map.Entry<Long, Long> range : mRanges.entrySet()) {
+                final JSONObject entry = new JSONObject();
+                entry.put("start", range.getKey());
+                entry.put("end", range.getValue());
+                ranges.put(entry);
+            }
+            object.put("ranges", ranges);
+            if (mDigestState != null) {
+                object.put("hashed", mHashed);
+                object.put("digest", mDigestState);
+            }
+            try (FileOutputStream os = new FileOutputStream(tmp, false)) {
+                os.write(object.toString().getBytes(StandardCharsets.UTF_8));
+                os.getFD().sync();
+            }
+            if (!tmp.renameTo(mFile))
+                Logger.d("journal: failed to save %s", mFile.getName());
+        } catch (IOException | JSONException e) {
+            Logger.ex(e);
+            tmp.delete();
+        }
+    }
+
+    public void delete() {
+        mFile.delete();
+    }
+}
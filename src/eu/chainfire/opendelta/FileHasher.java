@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.os.SystemClock;
+
+import eu.chainfire.opendelta.UpdateService.ProgressListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes whole files through a FileChannel with large direct buffers, and
+ * reports progress every few MiB or every PROGRESS_INTERVAL_MS, whichever
+ * comes first, instead of on every read. A reader thread keeps a small ring
+ * of buffers filled while the calling thread digests them, so storage and
+ * CPU work overlap. An optional Sink consumes the same buffers in parallel
+ * on a third thread.
+ */
+class FileHasher {
+    private static final String DIGEST_ALGO = "SHA-256";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int RING_SIZE = 4;
+    private static final long PROGRESS_BYTES = 4L * 1024L * 1024L;
+    private static final long PROGRESS_INTERVAL_MS = 100L;
+
+    public static class Result {
+        public final String sha256;
+        public final long bytes;
+        public final long elapsedMs;
+
+        private Result(String sha256, long bytes, long elapsedMs) {
+            this.sha256 = sha256;
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /**
+         * @return bytes hashed per second
+         */
+        public long getThroughput() {
+            return elapsedMs > 0 ? bytes * 1000L / elapsedMs : bytes * 1000L;
+        }
+    }
+
+    /**
+     * Gets to see every byte of the file in order, on its own thread, while
+     * the file is being hashed
+     */
+    public interface Sink {
+        void update(ByteBuffer data);
+    }
+
+    private static class Slot {
+        final ByteBuffer buffer;
+        final AtomicInteger users = new AtomicInteger();
+
+        Slot(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * @return the result, or null if the file could not be read
+     */
+    public static Result hash(File file, ProgressListener progressListener) {
+        return hash(file, progressListener, null);
+    }
+
+    /**
+     * @return the result, or null if the file could not be read
+     */
+    public static Result hash(File file, ProgressListener progressListener, Sink sink) {
+        final long start = SystemClock.elapsedRealtime();
+        try (FileInputStream is = new FileInputStream(file)) {
+            final FileChannel channel = is.getChannel();
+            final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGO);
+            final long total = channel.size();
+            final int consumers = sink != null ? 2 : 1;
+            final BlockingQueue<Slot> free = new ArrayBlockingQueue<>(RING_SIZE);
+            // one more slot for the end marker
+            final BlockingQueue<Slot> filled = new ArrayBlockingQueue<>(RING_SIZE + 1);
+            final BlockingQueue<Slot> sinkFilled = new ArrayBlockingQueue<>(RING_SIZE + 1);
+            for (int i = 0; i < RING_SIZE; i++)
+                free.add(new Slot(ByteBuffer.allocateDirect(BUFFER_SIZE)));
+            final Slot end = new Slot(ByteBuffer.allocate(0));
+            final IOException[] error = new IOException[1];
+
+            final Thread reader = new Thread(() -> {
+                try {
+                    boolean eof = false;
+                    while (!eof) {
+                        final Slot slot = free.take();
+                        final ByteBuffer buffer = slot.buffer;
+                        buffer.clear();
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer) < 0) {
+                                eof = true;
+                                break;
+                            }
+                        }
+                        buffer.flip();
+                        slot.users.set(consumers);
+                        filled.put(slot);
+                        if (sink != null) sinkFilled.put(slot);
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                } catch (InterruptedException ignored) {
+                } finally {
+                    filled.offer(end);
+                    sinkFilled.offer(end);
+                }
+            }, "FileHasher");
+            final Thread sinkThread = sink == null ? null : new Thread(() -> {
+                boolean failed = false;
+                try {
+                    Slot slot;
+                    while ((slot = sinkFilled.take()) != end) {
+                        // keep releasing buffers even if the sink gave up
+                        if (!failed) {
+                            try {
+                                sink.update(slot.buffer.duplicate());
+                            } catch (RuntimeException e) {
+                                Logger.ex(e);
+                                failed = true;
+                            }
+                        }
+                        release(slot, free);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }, "FileHasherSink");
+            reader.start();
+            if (sinkThread != null) sinkThread.start();
+
+            long count = 0;
+            long lastBytes = 0;
+            long lastTime = start;
+            try {
+                Slot slot;
+                while ((slot = filled.take()) != end) {
+                    final ByteBuffer buffer = slot.buffer.duplicate();
+                    count += buffer.remaining();
+                    digest.update(buffer);
+                    release(slot, free);
+
+                    if (progressListener != null) {
+                        final long now = SystemClock.elapsedRealtime();
+                        if (count - lastBytes >= PROGRESS_BYTES
+                                || now - lastTime >= PROGRESS_INTERVAL_MS) {
+                            progressListener.onProgress(getProgress(count, total),
+                                    count, total);
+                            lastBytes = count;
+                            lastTime = now;
+                        }
+                    }
+                }
+                if (sinkThread != null) sinkThread.join();
+            } finally {
+                reader.interrupt();
+                reader.join();
+                if (sinkThread != null) {
+                    sinkThread.interrupt();
+                    sinkThread.join();
+                }
+            }
+            if (error[0] != null) throw error[0];
+
+            final Result result = new Result(Download.digestToHexString(digest), count,
+                    SystemClock.elapsedRealtime() - start);
+            Logger.d("hashed %s: %d bytes in %d ms (%d KiB/s)", file.getName(),
+                    result.bytes, result.elapsedMs, result.getThroughput() / 1024L);
+            return result;
+        } catch (IOException | NoSuchAlgorithmException | InterruptedException e) {
+            Logger.ex(e);
+            return null;
+        }
+    }
+
+    private static void release(Slot slot, BlockingQueue<Slot> free)
+            throws InterruptedException {
+        if (slot.users.decrementAndGet() == 0) free.put(slot);
+    }
+
+    private static float getProgress(long current, long total) {
+        if (total == 0)
+            return 0f;
+        return ((float) current / (float) total) * 100f;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * On-disk cache for the small metadata files fetched with
+ * Download.asString. Bodies are stored together with their ETag and
+ * Last-Modified headers, one file per URL named after its SHA-256, so they
+ * can be revalidated with a conditional request. Entries marked immutable
+ * (anything addressed by commit SHA) are returned without asking the
+ * server at all.
+ */
+class HttpCache {
+    private static final int MAX_ENTRIES = 64;
+
+    private static HttpCache sInstance;
+
+    public static class Entry {
+        public final String url;
+        public final String eTag;
+        public final String lastModified;
+        public final boolean immutable;
+        public final String body;
+
+        public Entry(String url, String eTag, String lastModified, boolean immutable,
+                String body) {
+            this.url = url;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.immutable = immutable;
+            this.body = body;
+        }
+    }
+
+    private final File mDir;
+
+    private HttpCache(File dir) {
+        mDir = dir;
+    }
+
+    public static synchronized void init(File dir) {
+        if (sInstance == null || !sInstance.mDir.equals(dir)) {
+            dir.mkdirs();
+            sInstance = new HttpCache(dir);
+        }
+    }
+
+    /**
+     * @return the cache, or null if init() was not called
+     */
+    public static synchronized HttpCache getInstance() {
+        return sInstance;
+    }
+
+    public synchronized Entry get(String url) {
+        final File file = getFile(url);
+        if (file == null || !file.exists()) return null;
+        try (FileInputStream is = new FileInputStream(file)) {
+            final byte[] bytes = new byte[(int) file.length()];
+            int pos = 0, r;
+            while (pos < bytes.length && (r = is.read(bytes, pos, bytes.length - pos)) > 0)
+                pos += r;
+            final JSONObject object = new JSONObject(
+                    new String(bytes, 0, pos, StandardCharsets.UTF_8));
+            // a hash collision is next to impossible, but cheap to rule out
+            if (!url.equals(object.getString("url"))) return null;
+            return new Entry(url, object.optString("etag", null),
+                    object.optString("lastModified", null),
+                    object.optBoolean("immutable", false), object.getString("body"));
+        } catch (IOException | JSONException e) {
+            Logger.ex(e);
+            file.delete();
+            return null;
+        }
+    }
+
+    public synchronized void put(Entry entry) {
+        final File file = getFile(entry.url);
+        if (file == null) return;
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final JSONObject object = new JSONObject();
+            object.put("url", entry.url);
+            if (entry.eTag != null) object.put("etag", entry.eTag);
+            if (entry.lastModified != null) object.put("lastModified", entry.lastModified);
+            object.put("immutable", entry.immutable);
+            object.put("body", entry.body);
+            try (FileOutputStream os = new FileOutputStream(tmp, false)) {
+                os.write(object.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            if (!tmp.renameTo(file)) tmp.delete();
+        } catch (IOException | JSONException e) {
+            Logger.ex(e);
+            tmp.delete();
+        }
+        trim();
+    }
+
+    /**
+     * Marks the entry as recently used, so trim() keeps it
+     */
+    public synchronized void touch(String url) {
+        final File file = getFile(url);
+        if (file != null) file.setLastModified(System.currentTimeMillis());
+    }
+
+    private void trim() {
+        final File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_ENTRIES; i++)
+            files[i].delete();
+    }
+
+    private File getFile(String url) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(url.getBytes(StandardCharsets.UTF_8));
+            return new File(mDir, Download.digestToHexString(digest));
+        } catch (NoSuchAlgorithmException e) {
+            Logger.ex(e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.content.Context;
+import android.net.http.HttpEngine;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * android.net.http.HttpEngine (Android 14+). Its HttpURLConnection
+ * implementation negotiates HTTP/2 where the server offers it, so all
+ * requests to a host share one connection and one TLS handshake.
+ */
+class HttpEngineTransport implements HttpTransport {
+    private final HttpEngine mEngine;
+
+    HttpEngineTransport(Context context) {
+        mEngine = new HttpEngine.Builder(context.getApplicationContext())
+                .setEnableHttp2(true)
+                .build();
+    }
+
+    @Override
+    public HttpURLConnection openConnection(URL url) throws IOException {
+        return (HttpURLConnection) mEngine.openConnection(url);
+    }
+
+    @Override
+    public String toString() {
+        return HTTPENGINE;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.content.Context;
+import android.os.Build;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens the connections Download works with. The platform HttpURLConnection
+ * speaks HTTP/1.1 and needs a connection per request in flight; HttpEngine
+ * multiplexes parallel range requests and metadata fetches to the same host
+ * over a single HTTP/2 connection.
+ */
+interface HttpTransport {
+    String URLCONNECTION = "urlconnection";
+    String HTTPENGINE = "httpengine";
+
+    HttpURLConnection openConnection(URL url) throws IOException;
+
+    /**
+     * @return the named transport, or the HttpURLConnection one if that is
+     *         not available on this device
+     */
+    static HttpTransport create(Context context, String name) {
+        if (HTTPENGINE.equals(name)) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                try {
+                    return new HttpEngineTransport(context);
+                } catch (Exception e) {
+                    Logger.ex(e);
+                }
+            }
+            Logger.d("transport: %s not available", name);
+        }
+        return new UrlConnectionTransport();
+    }
+}
@@ -38,7 +38,6 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.UpdateEngine;
@@ -47,6 +46,7 @@ import android.provider.Settings;
 import android.text.Html;
 import android.text.format.Formatter;
 import android.text.TextUtils;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.text.method.ScrollingMovementMethod;
@@ -64,8 +64,11 @@ import androidx.preference.PreferenceManager;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends Activity {
     private static final int PERMISSIONS_REQUEST_MANAGE_EXTERNAL_STORAGE = 0;
@@ -74,7 +77,6 @@ public class MainActivity extends Activity {
 
     private UpdateService mUpdateService;
     private Config mConfig;
-    private Handler mHandler;
     private String mState;
     private TextView mTitle;
     private TextView mSub;
@@ -106,6 +108,8 @@ public class MainActivity extends Activity {
     private int mProgressMax = 1;
     private boolean mProgressEnabled;
     private boolean mPermOk;
+    private Choreographer mChoreographer;
+    private volatile boolean mResumed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -123,7 +127,7 @@ public class MainActivity extends Activity {
             actionBar.setDisplayShowTitleEnabled(false);
         }
 
-        mHandler = new Handler(getMainLooper());
+        mChoreographer = Choreographer.getInstance();
         mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
 
         mTitle = findViewById(R.id.text_title);
@@ -276,321 +280,389 @@ public class MainActivity extends Activity {
         mUpdateService.setFlashFilename(flashFilename);
     }
 
+    private final ProgressSnapshot mShownSnapshot = new ProgressSnapshot();
+    private final ProgressGenerator mProgressGenerator = new ProgressGenerator();
+    // one entry per state, each gets a frame; progress within a state is coalesced
+    private final ArrayDeque<ProgressSnapshot> mPendingSnapshots = new ArrayDeque<>();
+    private final ArrayDeque<ProgressSnapshot> mFreeSnapshots = new ArrayDeque<>();
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+
     private final State.StateCallback updateReceiver = new State.StateCallback() {
+        @Override
+        public void update(ProgressSnapshot snapshot) {
+            synchronized (mPendingSnapshots) {
+                ProgressSnapshot pending = mPendingSnapshots.peekLast();
+                if (pending == null || !Objects.equals(pending.state, snapshot.state)) {
+                    pending = mFreeSnapshots.pollFirst();
+                    if (pending == null) pending = new ProgressSnapshot();
+                    mPendingSnapshots.addLast(pending);
+                }
+                pending.set(snapshot);
+            }
+            scheduleRender();
+        }
+    };
+
+    /**
+     * Asks for a frame if the activity is visible and something is pending,
+     * otherwise onResume() picks it up
+     */
+    private void scheduleRender() {
+        final boolean pending;
+        synchronized (mPendingSnapshots) {
+            pending = !mPendingSnapshots.isEmpty();
+        }
+        if (mResumed && pending && mFrameScheduled.compareAndSet(false, true))
+            mChoreographer.postFrameCallback(mRenderer);
+    }
+
+    private final Choreographer.FrameCallback mRenderer = new Choreographer.FrameCallback() {
+        private SimpleDateFormat mLastCheckedFormat;
+        private long mLastCheckedMs = -1;
+        private String mLastCheckedText;
+
         private String formatLastChecked(long ms) {
             if (ms == 0) {
                 return "";
-            } else {
-                SimpleDateFormat format = new SimpleDateFormat("EEEE, MMMM d, yyyy - HH:mm");
-                return format.format(ms);
+            } else if (ms != mLastCheckedMs) {
+                if (mLastCheckedFormat == null)
+                    mLastCheckedFormat = new SimpleDateFormat("EEEE, MMMM d, yyyy - HH:mm");
+                mLastCheckedText = mLastCheckedFormat.format(ms);
+                mLastCheckedMs = ms;
             }
+            return mLastCheckedText;
         }
 
         @Override
-        public void update(String stateP, Float progress,
-                           Long current, Long total, String filename,
-                           Long ms, int errorCode) {
-            mHandler.post(() -> {
-                String state = stateP;
-                String title = "";
-                String sub = "";
-                String sub2 = "";
-                String progressPercent = "";
-                String updateVersion = "";
-                String extraText = "";
-                String downloadSizeText = "";
-                long localTotal = total != null ? total : 0L;
-                long localCurrent = current != null ? current : 1L;
-                long localMS = ms != null ? ms : 0L;
-                boolean enableFlash = false;
-                boolean enableBuild = false;
-                boolean enableDownload = false;
-                boolean enableResume = false;
-                boolean enableCancel = false;
-                boolean enableReboot = false;
-                boolean enableProgress = false;
-                boolean disableCheck = false;
-                boolean hideCheck = false;
-                boolean disableDataSpeed = false;
-                boolean enableChangelog = false;
-                long lastCheckedSaved = mPrefs.getLong(UpdateService.PREF_LAST_CHECK_TIME_NAME,
-                        UpdateService.PREF_LAST_CHECK_TIME_DEFAULT);
-                String lastCheckedText = lastCheckedSaved != UpdateService.PREF_LAST_CHECK_TIME_DEFAULT ?
-                        formatLastChecked(lastCheckedSaved) : getString(R.string.last_checked_never_title_new);
-                String fullVersion = mConfig.getVersion();
-                String[] versionParts = fullVersion.split("-");
-                String versionType = "";
-                try {
-                    versionType = versionParts[3];
-                } catch (Exception ignored) {
-                }
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled.set(false);
+            if (!mResumed) return;
+            synchronized (mPendingSnapshots) {
+                final ProgressSnapshot pending = mPendingSnapshots.pollFirst();
+                if (pending == null) return;
+                mShownSnapshot.set(pending);
+                mFreeSnapshots.addLast(pending);
+            }
+            // the next state, if any, gets the next frame
+            scheduleRender();
+            final ProgressSnapshot snapshot = mShownSnapshot;
+            final float progress = snapshot.progress;
+            final String filename = snapshot.filename;
+            final int errorCode = snapshot.errorCode;
+            String state = snapshot.state;
+            String title = "";
+            String sub = "";
+            String sub2 = "";
+            String progressPercent = "";
+            String updateVersion = "";
+            String extraText = "";
+            String downloadSizeText = "";
+            long localTotal = snapshot.total != ProgressSnapshot.UNKNOWN ? snapshot.total : 0L;
+            long localCurrent = snapshot.current != ProgressSnapshot.UNKNOWN
+                    ? snapshot.current : 1L;
+            boolean enableFlash = false;
+            boolean enableBuild = false;
+            boolean enableDownload = false;
+            boolean enableResume = false;
+            boolean enableCancel = false;
+            boolean enableReboot = false;
+            boolean enableProgress = false;
+            boolean disableCheck = false;
+            boolean hideCheck = false;
+            boolean disableDataSpeed = false;
+            boolean enableChangelog = false;
+
+            // don't try this at home
+            if (state == null) state = State.ACTION_NONE;
+            // don't spill for progress
+            if (!State.isProgressState(state)) {
+                Logger.d("onReceive state = " + state);
+            } else if (state.equals(mState)) {
+                // same progress state as before.
+                // save a lot of time by only updating progress
+                disableDataSpeed = State.ACTION_AB_FLASH.equals(state);
+                final ProgressGenerator pgen = mProgressGenerator.generate(
+                    localCurrent,
+                    localTotal,
+                    snapshot.rate,
+                    snapshot.eta,
+                    progress,
+                    disableDataSpeed,
+                    filename
+                );
+                mSub.setText(pgen.sub);
+                mSub.setSelected(true); // allow scrolling
+                mSub2.setText(pgen.sub2);
+                mProgressPercent.setText(pgen.progressPercent);
+                mProgressCurrent = Math.round(pgen.localCurrent);
+                mProgressMax = Math.round(pgen.localTotal);
+                mProgressEnabled = true;
+                handleProgressBar();
+                return;
+            }
+            mState = state;
+
+            long lastCheckedSaved = mPrefs.getLong(UpdateService.PREF_LAST_CHECK_TIME_NAME,
+                    UpdateService.PREF_LAST_CHECK_TIME_DEFAULT);
+            String lastCheckedText = lastCheckedSaved != UpdateService.PREF_LAST_CHECK_TIME_DEFAULT ?
+                    formatLastChecked(lastCheckedSaved) : getString(R.string.last_checked_never_title_new);
+            String fullVersion = mConfig.getVersion();
+            String[] versionParts = fullVersion.split("-");
+            String versionType = "";
+            try {
+                versionType = versionParts[3];
+            } catch (Exception ignored) {
+            }
 
-                // don't try this at home
-                if (state == null) state = State.ACTION_NONE;
-                title = tryGetResourceString("state_" + state);
-                // check for first start until check button has been pressed
-                // use a special title then - but only once
-                if (State.ACTION_NONE.equals(state)
-                        && !mPrefs.getBoolean(SettingsActivity.PREF_START_HINT_SHOWN, false)) {
-                    title = getString(R.string.last_checked_never_title_new);
-                }
-                // don't spill for progress
-                if (!State.isProgressState(state)) {
-                    Logger.d("onReceive state = " + state);
-                } else if (state.equals(mState)) {
-                    // same progress state as before.
-                    // save a lot of time by only updating progress
-                    disableDataSpeed = State.ACTION_AB_FLASH.equals(state);
-                    final ProgressGenerator pgen = new ProgressGenerator(
+            title = tryGetResourceString("state_" + state);
+            // check for first start until check button has been pressed
+            // use a special title then - but only once
+            if (State.ACTION_NONE.equals(state)
+                    && !mPrefs.getBoolean(SettingsActivity.PREF_START_HINT_SHOWN, false)) {
+                title = getString(R.string.last_checked_never_title_new);
+            }
+
+            mProgress.setIndeterminate(false);
+            String flashImage = null;
+            String flashImageBase = null;
+            long downloadSize = 0L;
+            switch (state) {
+                case State.ACTION_NONE:
+                case State.ERROR_UNKNOWN:
+                case State.ERROR_CONNECTION:
+                case State.ERROR_PERMISSIONS:
+                    break;
+                case State.ERROR_FLASH:
+                case State.ERROR_FLASH_FILE:
+                    enableFlash = true;
+                    break;
+                case State.ERROR_DISK_SPACE:
+                    localCurrent /= 1024L * 1024L;
+                    localTotal /= 1024L * 1024L;
+                    extraText = getString(R.string.error_disk_space_sub,
+                            localCurrent, localTotal);
+                    break;
+                case State.ERROR_UNOFFICIAL:
+                    extraText = getString(R.string.state_error_not_official_extra, versionType);
+                    break;
+                case State.ERROR_DOWNLOAD:
+                    extraText = tryGetResourceString("state_error_download_extra_" + errorCode);
+                    break;
+                case State.ERROR_DOWNLOAD_SHA:
+                    title = getString(R.string.state_error_download);
+                    extraText = getString(R.string.state_error_download_extra_sha);
+                    break;
+                case State.ERROR_AB_FLASH:
+                    extraText = tryGetResourceString("error_ab_" + errorCode);
+                    break;
+                case State.ACTION_READY:
+                    enableFlash = true;
+                    enableChangelog = true;
+                    flashImage = mPrefs.getString(UpdateService.PREF_READY_FILENAME_NAME, null);
+                    flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
+                    if (flashImageBase != null) {
+                        updateVersion = flashImageBase.substring(0,
+                                flashImageBase.lastIndexOf('.'));
+                    }
+                    mUpdateVersionTitle.setText(R.string.text_update_version_title);
+                    break;
+                case State.ACTION_FLASH_FILE_NO_SUM:
+                case State.ACTION_FLASH_FILE_INVALID_SUM:
+                    // warn the user once
+                    showLocalSumWarnDialog(state);
+                    flashImage = filename;
+                    flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
+                    if (flashImageBase != null) {
+                        updateVersion = flashImageBase;
+                    }
+                    mUpdateVersionTitle.setText(R.string.text_update_file_flash_title);
+                    break;
+                case State.ACTION_FLASH_FILE_READY:
+                    enableFlash = true;
+                    flashImage = filename;
+                    flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
+                    if (flashImageBase != null) {
+                        updateVersion = flashImageBase;
+                    }
+                    mUpdateVersionTitle.setText(R.string.text_update_file_flash_title);
+                    break;
+                case State.ACTION_AB_PAUSED:
+                    enableDownload = true;
+                    enableResume = true;
+                    hideCheck = true;
+                    break;
+                case State.ACTION_AB_FINISHED:
+                    enableReboot = true;
+                    enableCancel = true;
+                    hideCheck = true;
+                    enableChangelog = !mPrefs.getBoolean(UpdateService.PREF_FILE_FLASH, false);
+
+                    flashImage = mPrefs.getString(UpdateService.PREF_READY_FILENAME_NAME, null);
+                    flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
+                    if (flashImageBase != null) {
+                        updateVersion = flashImageBase.substring(0,
+                                flashImageBase.lastIndexOf('.'));
+                    }
+
+                    mPrefs.edit().putString(UpdateService.PREF_READY_FILENAME_NAME, null).commit();
+                    mPrefs.edit().putString(UpdateService.PREF_LATEST_FULL_NAME, null).commit();
+                    break;
+                case State.ACTION_AVAILABLE:
+                    final String latest = mPrefs.getString(
+                            UpdateService.PREF_LATEST_FULL_NAME, null);
+                    if (latest != null) {
+                        String latestBase = latest.substring(0,
+                                latest.lastIndexOf('.'));
+                        enableBuild = true;
+                        enableChangelog = true;
+                        updateVersion = latestBase;
+                        title = getString(R.string.state_action_build_full);
+                    }
+                    downloadSize = mPrefs.getLong(
+                            UpdateService.PREF_DOWNLOAD_SIZE, -1);
+                    if (downloadSize == -1) {
+                        downloadSizeText = "";
+                    } else if (downloadSize == 0) {
+                        downloadSizeText = getString(R.string.text_download_size_unknown);
+                    } else {
+                        downloadSizeText = Formatter.formatFileSize(getApplicationContext(), downloadSize);
+                    }
+                    break;
+                case State.ACTION_SEARCHING:
+                case State.ACTION_CHECKING:
+                    disableCheck = true;
+                    enableProgress = true;
+                    mProgress.setIndeterminate(true);
+                    localCurrent = 1L;
+                    break;
+                default:
+                    disableCheck = true;
+                    enableChangelog = !mPrefs.getBoolean(UpdateService.PREF_FILE_FLASH, false);
+                    enableProgress = true;
+                    switch (state) {
+                        case State.ACTION_AB_FLASH:
+                            disableDataSpeed = true;
+                            enableDownload = true;
+                            hideCheck = true;
+                            break;
+                        case State.ACTION_DOWNLOADING:
+                            hideCheck = true;
+                            enableDownload = true;
+                            break;
+                        case State.ERROR_DOWNLOAD_RESUME:
+                            title = getString(R.string.state_error_download);
+                            extraText = getString(R.string.state_error_download_extra_resume);
+                        case State.ACTION_DOWNLOADING_PAUSED:
+                            hideCheck = true;
+                            enableDownload = true;
+                            enableResume = true;
+                            break;
+                    }
+
+                    downloadSize = mPrefs.getLong(
+                            UpdateService.PREF_DOWNLOAD_SIZE, -1);
+                    if (downloadSize == -1) {
+                        downloadSizeText = "";
+                    } else if (downloadSize == 0) {
+                        downloadSizeText = getString(R.string.text_download_size_unknown);
+                    } else {
+                        downloadSizeText = Formatter.formatFileSize(getApplicationContext(), downloadSize);
+                    }
+
+                    updateVersion = getUpdateVersionString();
+
+                    flashImage = mPrefs.getString(UpdateService.PREF_READY_FILENAME_NAME, null);
+                    flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
+                    if (flashImageBase != null) {
+                        updateVersion = flashImageBase.substring(0, flashImageBase.lastIndexOf('.'));
+                    }
+
+                    final ProgressGenerator pgen = mProgressGenerator.generate(
                         localCurrent,
                         localTotal,
-                        localMS,
+                        snapshot.rate,
+                        snapshot.eta,
                         progress,
                         disableDataSpeed,
                         filename
                     );
-                    mSub.setText(pgen.sub);
-                    mSub.setSelected(true); // allow scrolling
-                    mSub2.setText(pgen.sub2);
-                    mProgressPercent.setText(pgen.progressPercent);
-                    mProgressCurrent = Math.round(pgen.localCurrent);
-                    mProgressMax = Math.round(pgen.localTotal);
-                    mProgressEnabled = true;
-                    handleProgressBar();
-                    return;
-                }
-                mState = state;
-
-                mProgress.setIndeterminate(false);
-                String flashImage = null;
-                String flashImageBase = null;
-                long downloadSize = 0L;
-                switch (state) {
-                    case State.ACTION_NONE:
-                    case State.ERROR_UNKNOWN:
-                    case State.ERROR_CONNECTION:
-                    case State.ERROR_PERMISSIONS:
-                        break;
-                    case State.ERROR_FLASH:
-                    case State.ERROR_FLASH_FILE:
-                        enableFlash = true;
-                        break;
-                    case State.ERROR_DISK_SPACE:
-                        localCurrent /= 1024L * 1024L;
-                        localTotal /= 1024L * 1024L;
-                        extraText = getString(R.string.error_disk_space_sub,
-                                localCurrent, localTotal);
-                        break;
-                    case State.ERROR_UNOFFICIAL:
-                        extraText = getString(R.string.state_error_not_official_extra, versionType);
-                        break;
-                    case State.ERROR_DOWNLOAD:
-                        extraText = tryGetResourceString("state_error_download_extra_" + errorCode);
-                        break;
-                    case State.ERROR_DOWNLOAD_SHA:
-                        title = getString(R.string.state_error_download);
-                        extraText = getString(R.string.state_error_download_extra_sha);
-                        break;
-                    case State.ERROR_AB_FLASH:
-                        extraText = tryGetResourceString("error_ab_" + errorCode);
-                        break;
-                    case State.ACTION_READY:
-                        enableFlash = true;
-                        enableChangelog = true;
-                        flashImage = mPrefs.getString(UpdateService.PREF_READY_FILENAME_NAME, null);
-                        flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
-                        if (flashImageBase != null) {
-                            updateVersion = flashImageBase.substring(0,
-                                    flashImageBase.lastIndexOf('.'));
-                        }
-                        mUpdateVersionTitle.setText(R.string.text_update_version_title);
-                        break;
-                    case State.ACTION_FLASH_FILE_NO_SUM:
-                    case State.ACTION_FLASH_FILE_INVALID_SUM:
-                        // warn the user once
-                        showLocalSumWarnDialog(state);
-                        flashImage = filename;
-                        flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
-                        if (flashImageBase != null) {
-                            updateVersion = flashImageBase;
-                        }
-                        mUpdateVersionTitle.setText(R.string.text_update_file_flash_title);
-                        break;
-                    case State.ACTION_FLASH_FILE_READY:
-                        enableFlash = true;
-                        flashImage = filename;
-                        flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
-                        if (flashImageBase != null) {
-                            updateVersion = flashImageBase;
-                        }
-                        mUpdateVersionTitle.setText(R.string.text_update_file_flash_title);
-                        break;
-                    case State.ACTION_AB_PAUSED:
-                        enableDownload = true;
-                        enableResume = true;
-                        hideCheck = true;
-                        break;
-                    case State.ACTION_AB_FINISHED:
-                        enableReboot = true;
-                        enableCancel = true;
-                        hideCheck = true;
-                        enableChangelog = !mPrefs.getBoolean(UpdateService.PREF_FILE_FLASH, false);
-
-                        flashImage = mPrefs.getString(UpdateService.PREF_READY_FILENAME_NAME, null);
-                        flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
-                        if (flashImageBase != null) {
-                            updateVersion = flashImageBase.substring(0,
-                                    flashImageBase.lastIndexOf('.'));
-                        }
-
-                        mPrefs.edit().putString(UpdateService.PREF_READY_FILENAME_NAME, null).commit();
-                        mPrefs.edit().putString(UpdateService.PREF_LATEST_FULL_NAME, null).commit();
-                        break;
-                    case State.ACTION_AVAILABLE:
-                        final String latest = mPrefs.getString(
-                                UpdateService.PREF_LATEST_FULL_NAME, null);
-                        if (latest != null) {
-                            String latestBase = latest.substring(0,
-                                    latest.lastIndexOf('.'));
-                            enableBuild = true;
-                            enableChangelog = true;
-                            updateVersion = latestBase;
-                            title = getString(R.string.state_action_build_full);
-                        }
-                        downloadSize = mPrefs.getLong(
-                                UpdateService.PREF_DOWNLOAD_SIZE, -1);
-                        if (downloadSize == -1) {
-                            downloadSizeText = "";
-                        } else if (downloadSize == 0) {
-                            downloadSizeText = getString(R.string.text_download_size_unknown);
-                        } else {
-                            downloadSizeText = Formatter.formatFileSize(getApplicationContext(), downloadSize);
-                        }
-                        break;
-                    case State.ACTION_SEARCHING:
-                    case State.ACTION_CHECKING:
-                        disableCheck = true;
-                        enableProgress = true;
-                        mProgress.setIndeterminate(true);
-                        localCurrent = 1L;
-                        break;
-                    default:
-                        disableCheck = true;
-                        enableChangelog = !mPrefs.getBoolean(UpdateService.PREF_FILE_FLASH, false);
-                        enableProgress = true;
-                        switch (state) {
-                            case State.ACTION_AB_FLASH:
-                                disableDataSpeed = true;
-                                enableDownload = true;
-                                hideCheck = true;
-                                break;
-                            case State.ACTION_DOWNLOADING:
-                                hideCheck = true;
-                                enableDownload = true;
-                                break;
-                            case State.ERROR_DOWNLOAD_RESUME:
-                                title = getString(R.string.state_error_download);
-                                extraText = getString(R.string.state_error_download_extra_resume);
-                            case State.ACTION_DOWNLOADING_PAUSED:
-                                hideCheck = true;
-                                enableDownload = true;
-                                enableResume = true;
-                                break;
-                        }
-
-                        downloadSize = mPrefs.getLong(
-                                UpdateService.PREF_DOWNLOAD_SIZE, -1);
-                        if (downloadSize == -1) {
-                            downloadSizeText = "";
-                        } else if (downloadSize == 0) {
-                            downloadSizeText = getString(R.string.text_download_size_unknown);
-                        } else {
-                            downloadSizeText = Formatter.formatFileSize(getApplicationContext(), downloadSize);
-                        }
-
-                        updateVersion = getUpdateVersionString();
-
-                        flashImage = mPrefs.getString(UpdateService.PREF_READY_FILENAME_NAME, null);
-                        flashImageBase = flashImage != null ? new File(flashImage).getName() : null;
-                        if (flashImageBase != null) {
-                            updateVersion = flashImageBase.substring(0, flashImageBase.lastIndexOf('.'));
-                        }
-
-                        final ProgressGenerator pgen = new ProgressGenerator(
-                            localCurrent,
-                            localTotal,
-                            localMS,
-                            progress,
-                            disableDataSpeed,
-                            filename
-                        );
-                        sub = pgen.sub;
-                        sub2 = pgen.sub2;
-                        progressPercent = pgen.progressPercent;
-                        localCurrent = pgen.localCurrent;
-                        localTotal = pgen.localTotal;
-                        break;
-                }
-                mTitle.setText(title);
-                mSub.setText(sub);
-                mSub.setSelected(true); // allow scrolling
-                mSub2.setText(sub2);
-                mProgressPercent.setText(progressPercent);
-                final boolean hideVersion = TextUtils.isEmpty(updateVersion);
-                if (!hideVersion) mUpdateVersion.setText(updateVersion);
-                mUpdateVersion.setVisibility(hideVersion ? View.GONE : View.VISIBLE);
-                mUpdateVersionTitle.setVisibility(hideVersion ? View.GONE : View.VISIBLE);
-                mCurrentVersion.setText(mConfig.getFilenameBase());
-                mLastChecked.setText(lastCheckedText);
-                mExtraText.setText(extraText);
-                final boolean hideSize = TextUtils.isEmpty(downloadSizeText);
-                if (!hideSize) mDownloadSize.setText(downloadSizeText);
-                mDownloadSize.setVisibility(hideSize ? View.GONE : View.VISIBLE);
-                mDownloadSizeHeader.setVisibility(hideSize ? View.GONE : View.VISIBLE);
-                mDownloadSizeSpacer.setVisibility(hideSize ? View.GONE : View.VISIBLE);
-
-                mProgressCurrent = Math.round(localCurrent);
-                mProgressMax = Math.round(localTotal);
-                mProgressEnabled = enableProgress;
-
-                handleProgressBar();
-
-                mCheckBtn.setEnabled(mPermOk && !disableCheck);
-                mBuildBtn.setEnabled(mPermOk && enableBuild);
-                mFlashBtn.setEnabled(mPermOk && enableFlash);
-                mRebootBtn.setEnabled(enableReboot);
-                mFileFlashButton.setEnabled(mPermOk && !disableCheck);
-                mCheckBtn.setVisibility(hideCheck ? View.GONE : View.VISIBLE);
-                mFlashBtn.setVisibility(enableFlash ? View.VISIBLE : View.GONE);
-                mBuildBtn.setVisibility(!enableBuild || enableFlash ? View.GONE : View.VISIBLE);
-                mRebootBtn.setVisibility(enableReboot ? View.VISIBLE : View.GONE);
-                mFileFlashButton.setVisibility(hideCheck ? View.GONE : View.VISIBLE);
-
-                // handle changelog
-                if (enableChangelog) {
-                    final String cl = mPrefs.getString(UpdateService.PREF_LATEST_CHANGELOG, null);
-                    if (cl != null) mChangelog.setText(cl);
-                    else enableChangelog = false;
-                }
-                mChangelog.setVisibility(enableChangelog ? View.VISIBLE : View.GONE);
-                mChangelogHeader.setVisibility(enableChangelog ? View.VISIBLE : View.GONE);
-                mChangelogPlaceholder.setVisibility(enableChangelog ? View.GONE : View.VISIBLE);
-
-                // download buttons
-                final int vis = enableDownload ? View.VISIBLE : View.GONE;
-                mStopBtn.setVisibility(enableCancel ? View.VISIBLE : vis);
-                mPauseBtn.setVisibility(vis);
-                mPauseBtn.setText(getString(enableResume ? R.string.button_resume_text
-                        : R.string.button_pause_text));
-            });
+                    sub = pgen.sub;
+                    sub2 = pgen.sub2;
+                    progressPercent = pgen.progressPercent;
+                    localCurrent = pgen.localCurrent;
+                    localTotal = pgen.localTotal;
+                    break;
+            }
+            mTitle.setText(title);
+            mSub.setText(sub);
+            mSub.setSelected(true); // allow scrolling
+            mSub2.setText(sub2);
+            mProgressPercent.setText(progressPercent);
+            final boolean hideVersion = TextUtils.isEmpty(updateVersion);
+            if (!hideVersion) mUpdateVersion.setText(updateVersion);
+            mUpdateVersion.setVisibility(hideVersion ? View.GONE : View.VISIBLE);
+            mUpdateVersionTitle.setVisibility(hideVersion ? View.GONE : View.VISIBLE);
+            mCurrentVersion.setText(mConfig.getFilenameBase());
+            mLastChecked.setText(lastCheckedText);
+            mExtraText.setText(extraText);
+            final boolean hideSize = TextUtils.isEmpty(downloadSizeText);
+            if (!hideSize) mDownloadSize.setText(downloadSizeText);
+            mDownloadSize.setVisibility(hideSize ? View.GONE : View.VISIBLE);
+            mDownloadSizeHeader.setVisibility(hideSize ? View.GONE : View.VISIBLE);
+            mDownloadSizeSpacer.setVisibility(hideSize ? View.GONE : View.VISIBLE);
+
+            mProgressCurrent = Math.round(localCurrent);
+            mProgressMax = Math.round(localTotal);
+            mProgressEnabled = enableProgress;
+
+            handleProgressBar();
+
+            mCheckBtn.setEnabled(mPermOk && !disableCheck);
+            mBuildBtn.setEnabled(mPermOk && enableBuild);
+            mFlashBtn.setEnabled(mPermOk && enableFlash);
+            mRebootBtn.setEnabled(enableReboot);
+            mFileFlashButton.setEnabled(mPermOk && !disableCheck);
+            mCheckBtn.setVisibility(hideCheck ? View.GONE : View.VISIBLE);
+            mFlashBtn.setVisibility(enableFlash ? View.VISIBLE : View.GONE);
+            mBuildBtn.setVisibility(!enableBuild || enableFlash ? View.GONE : View.VISIBLE);
+            mRebootBtn.setVisibility(enableReboot ? View.VISIBLE : View.GONE);
+            mFileFlashButton.setVisibility(hideCheck ? View.GONE : View.VISIBLE);
+
+            // handle changelog
+            if (enableChangelog) {
+                final String cl = mPrefs.getString(UpdateService.PREF_LATEST_CHANGELOG, null);
+                if (cl != null) mChangelog.setText(cl);
+                else enableChangelog = false;
+            }
+            mChangelog.setVisibility(enableChangelog ? View.VISIBLE : View.GONE);
+            mChangelogHeader.setVisibility(enableChangelog ? View.VISIBLE : View.GONE);
+            mChangelogPlaceholder.setVisibility(enableChangelog ? View.GONE : View.VISIBLE);
+
+            // download buttons
+            final int vis = enableDownload ? View.VISIBLE : View.GONE;
+            mStopBtn.setVisibility(enableCancel ? View.VISIBLE : vis);
+            mPauseBtn.setVisibility(vis);
+            mPauseBtn.setText(getString(enableResume ? R.string.button_resume_text
+                    : R.string.button_pause_text));
         }
     };
 
     @Override
     protected void onResume() {
         super.onResume();
+        mResumed = true;
         handleProgressBar();
         updateInfoVisibility();
+        // catch up with what happened while in the background
+        scheduleRender();
+    }
+
+    @Override
+    protected void onPause() {
+        mResumed = false;
+        mChoreographer.removeFrameCallback(mRenderer);
+        mFrameScheduled.set(false);
+        super.onPause();
     }
 
     public void onButtonCheckNowClick(View v) {
@@ -893,52 +965,73 @@ public class MainActivity extends Activity {
         public long localCurrent;
         public long localTotal;
 
-        public ProgressGenerator(
+        // the texts change far less often than progress is reported
+        private int mLastPercent = -1;
+        private String mPercentText;
+        private int mLastSec = -1;
+        private int mLastSpeed = -1;
+        private int mLastUnit = -1;
+        private String mSub2Text;
+
+        public ProgressGenerator generate(
                 long localCurrent,
                 long localTotal,
-                long localMS,
-                Float progress,
+                long rate,
+                long eta,
+                float progress,
                 boolean disableDataSpeed,
                 String filename
                 ) {
             this.localCurrent = localCurrent;
             this.localTotal = localTotal;
-            generate(localMS, progress, disableDataSpeed, filename);
+            sub = null;
+            sub2 = null;
+            progressPercent = null;
+            generate(rate, eta, progress, disableDataSpeed, filename);
+            return this;
         }
 
-        private void generate(long localMS, Float progress,
+        private void generate(long rate, long eta, float progress,
                 boolean disableDataSpeed, String filename) {
             // long --> int overflows FTL (progress.setXXX)
-            boolean progressInK = false;
             if (localTotal > 1024L * 1024L * 1024L) {
-                progressInK = true;
                 localCurrent /= 1024L;
                 localTotal /= 1024L;
             }
 
             if (filename != null) {
                 sub = filename;
-                progressPercent = String.format(Locale.ENGLISH, "%.0f %%", progress);
-                if (localMS < 500 || localCurrent < 0 || localTotal < 0) return;
-                float kibps = ((float) localCurrent / 1024f) / ((float) localMS / 1000f);
-                if (progressInK) kibps *= 1024f;
-                int sec = (int) (((((float) localTotal / (float) localCurrent) *
-                        (float) localMS) - localMS) / 1000f);
-                if (disableDataSpeed) {
+                final int percent = Math.round(progress);
+                if (percent != mLastPercent || mPercentText == null) {
+                    mPercentText = String.format(Locale.ENGLISH, "%d %%", percent);
+                    mLastPercent = percent;
+                }
+                progressPercent = mPercentText;
+                // speed and ETA come from the service's ThroughputEstimator
+                if (rate <= 0 || eta < 0) return;
+                final float kibps = rate / 1024f;
+                final int sec = (int) eta;
+                // 0: no speed, 1: KiB/s, 2: MiB/s
+                final int unit = disableDataSpeed ? 0 : kibps < 1024 ? 1 : 2;
+                final int speed = unit == 0 ? 0 : Math.round(unit == 1 ? kibps : kibps / 1024f);
+                if (sec == mLastSec && speed == mLastSpeed && unit == mLastUnit
+                        && mSub2Text != null) {
+                    sub2 = mSub2Text;
+                    return;
+                }
+                if (unit == 0) {
                     sub2 = String.format(Locale.ENGLISH,
                             "%02d:%02d",
                             sec / 60, sec % 60);
-                    return;
-                }
-                if (kibps < 1024) {
+                } else {
                     sub2 = String.format(Locale.ENGLISH,
-                            "%.0f KiB/s, %02d:%02d",
-                            kibps, sec / 60, sec % 60);
-                    return;
+                            unit == 1 ? "%d KiB/s, %02d:%02d" : "%d MiB/s, %02d:%02d",
+                            speed, sec / 60, sec % 60);
                 }
-                sub2 = String.format(Locale.ENGLISH,
-                        "%.0f MiB/s, %02d:%02d",
-                        kibps / 1024f, sec / 60, sec % 60);
+                mSub2Text = sub2;
+                mLastSec = sec;
+                mLastSpeed = speed;
+                mLastUnit = unit;
             }
         }
     }
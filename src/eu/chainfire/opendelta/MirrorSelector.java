@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.os.SystemClock;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the fastest of several URLs serving the same file. Every candidate
+ * is probed in parallel with a small ranged request; redirectors like
+ * SourceForge are probed a few times, since each request may land on a
+ * different mirror, and the mirror they redirected to is used directly.
+ * The bytes the fastest probe fetched are handed to the download, so they
+ * are not requested twice. During the download the observed throughput is reported back, and when
+ * it falls well below what another mirror achieved, the next request goes
+ * there instead.
+ */
+class MirrorSelector {
+    private static final long PROBE_SIZE = 256L * 1024L;
+    private static final int PROBES_PER_URL = 2;
+    private static final int PROBE_THREADS = 4;
+    private static final long PROBE_TIMEOUT_MS = 15000L;
+    // switch once the current mirror is slower than this share of another one
+    private static final float SWITCH_RATIO = 0.5f;
+
+    private static class Mirror {
+        final String url;
+        // bytes per second, as probed or last observed
+        long throughput;
+        // start of the file as probed, until the download takes it
+        byte[] head;
+
+        Mirror(String url, long throughput) {
+            this.url = url;
+            this.throughput = throughput;
+        }
+    }
+
+    private static class Probe {
+        final long length;
+        final long throughput;
+        final byte[] head;
+
+        Probe(long length, long throughput, byte[] head) {
+            this.length = length;
+            this.throughput = throughput;
+            this.head = head;
+        }
+    }
+
+    private final List<Mirror> mMirrors;
+    private final long mLength;
+    private Mirror mCurrent;
+
+    private MirrorSelector(List<Mirror> mirrors, long length) {
+        mMirrors = mirrors;
+        mLength = length;
+        mCurrent = mirrors.get(0);
+        for (Mirror mirror : mirrors) {
+            if (mirror.throughput > mCurrent.throughput) mCurrent = mirror;
+        }
+    }
+
+    /**
+     * Probes all urls, the first one being the primary. Mirrors that fail or
+     * serve a file of a different length than the primary are left out.
+     *
+     * @return the selector, starting with the fastest mirror
+     */
+    public static MirrorSelector probe(List<String> urls) {
+        final ExecutorService executor = Executors.newFixedThreadPool(PROBE_THREADS);
+        final List<Future<Probe>> futures = new ArrayList<>();
+        final List<String> candidates = new ArrayList<>();
+        for (String url : urls) {
+            for (int i = 0; i < PROBES_PER_URL; i++)
+                candidates.add(url);
+        }
+        // probe i replaces entry i with where it was redirected to
+        final List<String> resolved = new ArrayList<>(candidates);
+        try {
+            for (int i = 0; i < candidates.size(); i++) {
+                final String url = candidates.get(i);
+                final int index = i;
+                futures.add(executor.submit(() -> probe(url, resolved, index)));
+            }
+            final long deadline = SystemClock.elapsedRealtime() + PROBE_TIMEOUT_MS;
+            final List<Mirror> mirrors = new ArrayList<>();
+            long length = -1;
+            for (int i = 0; i < futures.size(); i++) {
+                Probe result = null;
+                try {
+                    result = futures.get(i).get(Math.max(1L,
+                            deadline - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    Logger.d("mirror probe failed: %s", candidates.get(i));
+                }
+                if (result == null) continue;
+                // everyone has to agree with the primary, or the first that answered
+                if (length < 0) length = result.length;
+                if (result.length != length) {
+                    Logger.d("mirror %s has length %d, expected %d",
+                            candidates.get(i), result.length, length);
+                    continue;
+                }
+                String url;
+                synchronized (resolved) {
+                    url = resolved.get(i);
+                }
+                add(mirrors, url, result.throughput, result.head);
+            }
+            // the configured urls stay as a last resort, a redirect target may expire
+            for (String url : urls)
+                add(mirrors, url, 0, null);
+            final MirrorSelector selector = new MirrorSelector(mirrors, length);
+            for (Mirror mirror : mirrors)
+                Logger.d("mirror %s: %d KiB/s", mirror.url, mirror.throughput / 1024L);
+            return selector;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the probe, or null on failure
+     */
+    private static Probe probe(String url, List<String> resolved, int index) throws Exception {
+        final long start = SystemClock.elapsedRealtime();
+        final HttpURLConnection urlConnection = Download.setupHttpsRequest(url, 0,
+                PROBE_SIZE - 1);
+        if (urlConnection == null) return null;
+        final byte[] head = new byte[(int) PROBE_SIZE];
+        int bytes = 0;
+        final long length;
+        try (InputStream is = urlConnection.getInputStream()) {
+            // a server ignoring the range would send everything, it fails below
+            length = Download.getContentRangeTotal(urlConnection);
+            int r;
+            while (bytes < head.length && (r = is.read(head, bytes, head.length - bytes)) > 0)
+                bytes += r;
+        } catch (Exception e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+        final long elapsed = Math.max(1L, SystemClock.elapsedRealtime() - start);
+        synchronized (resolved) {
+            resolved.set(index, urlConnection.getURL().toString());
+        }
+        return new Probe(length, bytes * 1000L / elapsed,
+                bytes == head.length ? head : Arrays.copyOf(head, bytes));
+    }
+
+    private static void add(List<Mirror> mirrors, String url, long throughput, byte[] head) {
+        for (Mirror mirror : mirrors) {
+            if (mirror.url.equals(url)) {
+                if (throughput > mirror.throughput) {
+                    mirror.throughput = throughput;
+                    mirror.head = head;
+                }
+                return;
+            }
+        }
+        final Mirror mirror = new Mirror(url, throughput);
+        mirror.head = head;
+        mirrors.add(mirror);
+    }
+
+    /**
+     * @return total length all mirrors agreed on, or -1 if none answered
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Hands out what the probe of the current mirror fetched from the start
+     * of the file, once. The other probes' bytes are dropped.
+     *
+     * @return the bytes, or null if there are none
+     */
+    public synchronized byte[] takeHead() {
+        final byte[] head = mCurrent.head;
+        for (Mirror mirror : mMirrors)
+            mirror.head = null;
+        return head;
+    }
+
+    public synchronized String getUrl() {
+        return mCurrent.url;
+    }
+
+    /**
+     * Records the throughput a transfer from url achieved, and moves on to a
+     * faster mirror if there is one
+     */
+    public synchronized void report(String url, long bytes, long elapsedMs) {
+        if (!url.equals(mCurrent.url) || elapsedMs <= 0) return;
+        // smoothed, a single slow chunk is no reason to move
+        mCurrent.throughput = (mCurrent.throughput + bytes * 1000L / elapsedMs) / 2;
+        final Mirror best = getBest();
+        if (best != null && mCurrent.throughput < best.throughput * SWITCH_RATIO) {
+            Logger.d("mirror %s down to %d KiB/s, switching to %s", mCurrent.url,
+                    mCurrent.throughput / 1024L, best.url);
+            mCurrent = best;
+        }
+    }
+
+    /**
+     * A request to url failed, try another mirror next
+     */
+    public synchronized void fail(String url) {
+        if (!url.equals(mCurrent.url)) return;
+        mCurrent.throughput = 0;
+        final int next = (mMirrors.indexOf(mCurrent) + 1) % mMirrors.size();
+        final Mirror best = getBest();
+        mCurrent = best != null && best.throughput > 0 ? best : mMirrors.get(next);
+        Logger.d("mirror %s failed, switching to %s", url, mCurrent.url);
+    }
+
+    private Mirror getBest() {
+        Mirror best = null;
+        for (Mirror mirror : mMirrors) {
+            if (mirror != mCurrent && (best == null || mirror.throughput > best.throughput))
+                best = mirror;
+        }
+        return best;
+    }
+}
@@ -21,12 +21,64 @@
 
 package eu.chainfire.opendelta;
 
+import java.io.File;
+import java.io.IOException;
+
 public class Native {
+    private static Boolean sAvailable = null;
+
+    /**
+     * Loads libopendelta on first use. Call this before any of the native
+     * methods, they can't be used if it returns false.
+     */
+    public static synchronized boolean isAvailable() {
+        if (sAvailable == null) {
+            try {
+                System.loadLibrary("opendelta");
+                sAvailable = true;
+            } catch (UnsatisfiedLinkError e) {
+                Logger.d("libopendelta not available: " + e.getMessage());
+                sAvailable = false;
+            }
+        }
+        return sAvailable;
+    }
+
     public static native int zipadjust(String filenameIn, String filenameOut, int decompress);
 
     public static native int dedelta(String filenameSource, String filenameDelta, String filenameOut);
 
-    static {
-        System.loadLibrary("opendelta");
+    /**
+     * zipadjust with a fallback to {@link ZipAdjust} when the native library
+     * is missing, same return value
+     */
+    public static int zipadjustCompat(String filenameIn, String filenameOut, int decompress) {
+        if (isAvailable())
+            return zipadjust(filenameIn, filenameOut, decompress);
+        try {
+            ZipAdjust.adjust(new File(filenameIn), new File(filenameOut), decompress != 0);
+            return 1;
+        } catch (IOException e) {
+            Logger.ex(e);
+            return 0;
+        }
+    }
+
+    /**
+     * dedelta with a fallback to {@link VCDiffDecoder} when the native
+     * library is missing, same return value
+     */
+    public static int dedeltaCompat(String filenameSource, String filenameDelta,
+            String filenameOut) {
+        if (isAvailable())
+            return dedelta(filenameSource, filenameDelta, filenameOut);
+        try {
+            VCDiffDecoder.decode(new File(filenameSource), new File(filenameDelta),
+                    new File(filenameOut));
+            return 1;
+        } catch (IOException e) {
+            Logger.ex(e);
+            return 0;
+        }
     }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Owns one notification id and posts to it from its own looper, so the
+ * binder call into the notification service never runs on a download or
+ * flash thread. Progress is coalesced: setProgress() only records the
+ * values, and the notification is rebuilt from the same builder when the
+ * percent or the displayed ETA changed, at most once per
+ * MIN_INTERVAL_MS. show() and cancel() supersede any pending progress.
+ */
+class NotificationUpdater {
+    private static final long MIN_INTERVAL_MS = 1000L;
+
+    /**
+     * Produces the sub text of the progress notification
+     */
+    public interface SubText {
+        /**
+         * @param sec ETA in seconds, or -1 if unknown
+         * @param kibps speed in KiB/s, or 0 if unknown
+         */
+        String format(int percent, int sec, float kibps);
+    }
+
+    private final NotificationManager mManager;
+    private final int mId;
+    private final Handler mHandler;
+
+    // guarded by this
+    private Notification.Builder mBuilder;
+    private SubText mSubText;
+    private int mPercent;
+    private int mSec;
+    private float mKiBps;
+    private boolean mScheduled;
+    private int mGeneration;
+
+    // only touched on the looper
+    private int mShownPercent = -1;
+    private int mShownSec = -1;
+    private long mShownAt;
+
+    private final Runnable mPublish = this::publish;
+
+    public NotificationUpdater(NotificationManager manager, int id, Looper looper) {
+        mManager = manager;
+        mId = id;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Posts builder as is, and keeps it for later progress updates
+     *
+     * @param subText formats progress for this builder, or null if it has none
+     */
+    public void show(Notification.Builder builder, SubText subText) {
+        set(builder, subText, true);
+    }
+
+    /**
+     * Keeps builder for progress updates without posting it yet, the first
+     * setProgress() does
+     */
+    public void attach(Notification.Builder builder, SubText subText) {
+        set(builder, subText, false);
+    }
+
+    private void set(Notification.Builder builder, SubText subText, boolean post) {
+        final int generation;
+        synchronized (this) {
+            generation = ++mGeneration;
+            mBuilder = builder;
+            mSubText = subText;
+        }
+        mHandler.post(() -> {
+            synchronized (this) {
+                if (generation != mGeneration) return;
+            }
+            mShownPercent = -1;
+            mShownSec = -1;
+            if (!post) return;
+            mShownAt = SystemClock.elapsedRealtime();
+            mManager.notify(mId, builder.build());
+        });
+    }
+
+    public void cancel() {
+        synchronized (this) {
+            mGeneration++;
+            mBuilder = null;
+            mSubText = null;
+        }
+        mHandler.post(() -> mManager.cancel(mId));
+    }
+
+    /**
+     * Records the progress of the notification last passed to show(), cheap
+     * enough to call for every progress tick
+     */
+    public void setProgress(int percent, int sec, float kibps) {
+        synchronized (this) {
+            if (mBuilder == null) return;
+            mPercent = percent;
+            mSec = sec;
+            mKiBps = kibps;
+            if (mScheduled) return;
+            mScheduled = true;
+        }
+        mHandler.post(mPublish);
+    }
+
+    private void publish() {
+        final Notification.Builder builder;
+        final SubText subText;
+        final int percent, sec;
+        final float kibps;
+        synchronized (this) {
+            mScheduled = false;
+            if (mBuilder == null) return;
+            builder = mBuilder;
+            subText = mSubText;
+            percent = mPercent;
+            sec = mSec;
+            kibps = mKiBps;
+            if (percent == mShownPercent && sec == mShownSec) return;
+            final long wait = mShownAt + MIN_INTERVAL_MS - SystemClock.elapsedRealtime();
+            if (wait > 0) {
+                // come back with whatever is latest by then
+                mScheduled = true;
+                mHandler.postDelayed(mPublish, wait);
+                return;
+            }
+        }
+        builder.setProgress(100, percent, false);
+        if (subText != null) builder.setSubText(subText.format(percent, sec, kibps));
+        mManager.notify(mId, builder.build());
+        mShownPercent = percent;
+        mShownSec = sec;
+        mShownAt = SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+/**
+ * One set of State values with primitive fields, so progress can be
+ * passed around without boxing. Instances are reused: a snapshot handed to
+ * a StateCallback is only valid for the duration of the call, copy it with
+ * set() to keep it.
+ */
+public final class ProgressSnapshot {
+    public static final long UNKNOWN = -1L;
+
+    public String state = State.ACTION_NONE;
+    // NaN when unknown
+    public float progress = Float.NaN;
+    public long current = UNKNOWN;
+    public long total = UNKNOWN;
+    public String filename;
+    public long ms = UNKNOWN;
+    // from ThroughputEstimator: units of current per second, and seconds
+    public long rate = UNKNOWN;
+    public long eta = UNKNOWN;
+    public int errorCode = -1;
+
+    public void set(String state, float progress, long current, long total,
+            String filename, long ms, long rate, long eta, int errorCode) {
+        this.state = state;
+        this.progress = progress;
+        this.current = current;
+        this.total = total;
+        this.filename = filename;
+        this.ms = ms;
+        this.rate = rate;
+        this.eta = eta;
+        this.errorCode = errorCode;
+    }
+
+    public void set(ProgressSnapshot other) {
+        set(other.state, other.progress, other.current, other.total, other.filename,
+                other.ms, other.rate, other.eta, other.errorCode);
+    }
+
+    public boolean hasProgress() {
+        return !Float.isNaN(progress);
+    }
+}
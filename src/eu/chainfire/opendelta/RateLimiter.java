@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Token bucket shared by all connections of a download. Every byte read
+ * takes a token; the bucket refills at the rate the Policy currently asks
+ * for, which is looked at again every POLICY_INTERVAL_MS so the limit can
+ * follow network and screen state while the download runs.
+ */
+class RateLimiter {
+    private static final long POLICY_INTERVAL_MS = 1000L;
+    // how far the bucket may fill up while idle
+    private static final long BURST_MS = 250L;
+
+    public interface Policy {
+        /**
+         * @return bytes per second, 0 for no limit
+         */
+        long getRate();
+    }
+
+    private final Policy mPolicy;
+    private long mRate = -1;
+    private long mTokens = 0;
+    private long mLastRefill;
+    private long mLastPolicy;
+
+    public RateLimiter(Policy policy) {
+        mPolicy = policy;
+    }
+
+    /**
+     * Takes bytes from the bucket, sleeping until it has refilled enough.
+     * The bucket may go into debt for a large read, later reads wait for it.
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long wait;
+        synchronized (this) {
+            final long now = SystemClock.elapsedRealtime();
+            if (mRate < 0 || now - mLastPolicy >= POLICY_INTERVAL_MS) {
+                final long rate = Math.max(0, mPolicy.getRate());
+                if (rate != mRate) {
+                    Logger.d("download rate limit: %d KiB/s", rate / 1024L);
+                    mRate = rate;
+                    mTokens = 0;
+                    mLastRefill = now;
+                }
+                mLastPolicy = now;
+            }
+            if (mRate == 0) return;
+            mTokens = Math.min(mTokens + (now - mLastRefill) * mRate / 1000L,
+                    mRate * BURST_MS / 1000L);
+            mLastRefill = now;
+            mTokens -= bytes;
+            wait = mTokens < 0 ? -mTokens * 1000L / mRate : 0;
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
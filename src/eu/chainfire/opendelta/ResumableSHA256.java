@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Plain SHA-256 (FIPS 180-4) whose intermediate state can be saved and
+ * restored. MessageDigest can't be serialized, and we need that to carry
+ * the hash of a partial download over a pause or a service restart.
+ */
+class ResumableSHA256 {
+    private static final String STATE_PREFIX = "sha256";
+
+    private static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private final int[] mH = new int[8];
+    private final int[] mW = new int[64];
+    private final byte[] mBlock = new byte[64];
+    private int mBlockLen;
+    private long mCount;
+
+    ResumableSHA256() {
+        reset();
+    }
+
+    void reset() {
+        mH[0] = 0x6a09e667;
+        mH[1] = 0xbb67ae85;
+        mH[2] = 0x3c6ef372;
+        mH[3] = 0xa54ff53a;
+        mH[4] = 0x510e527f;
+        mH[5] = 0x9b05688c;
+        mH[6] = 0x1f83d9ab;
+        mH[7] = 0x5be0cd19;
+        mBlockLen = 0;
+        mCount = 0;
+    }
+
+    /**
+     * @return number of bytes hashed so far
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    void update(byte[] buffer, int offset, int length) {
+        mCount += length;
+        if (mBlockLen > 0) {
+            final int n = Math.min(64 - mBlockLen, length);
+            System.arraycopy(buffer, offset, mBlock, mBlockLen, n);
+            mBlockLen += n;
+            offset += n;
+            length -= n;
+            if (mBlockLen < 64) return;
+            compress(mBlock, 0);
+            mBlockLen = 0;
+        }
+        while (length >= 64) {
+            compress(buffer, offset);
+            offset += 64;
+            length -= 64;
+        }
+        if (length > 0) {
+            System.arraycopy(buffer, offset, mBlock, 0, length);
+            mBlockLen = length;
+        }
+    }
+
+    /**
+     * Consumes the remaining bytes of data, reading whole blocks straight
+     * from the buffer so direct buffers need no copy to the heap
+     */
+    void update(ByteBuffer data) {
+        if (data.hasArray()) {
+            update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        mCount += data.remaining();
+        if (mBlockLen > 0) {
+            final int n = Math.min(64 - mBlockLen, data.remaining());
+            data.get(mBlock, mBlockLen, n);
+            mBlockLen += n;
+            if (mBlockLen < 64) return;
+            compress(mBlock, 0);
+            mBlockLen = 0;
+        }
+        final ByteBuffer words = data.order() == ByteOrder.BIG_ENDIAN
+                ? data : data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        while (data.remaining() >= 64) {
+            final int offset = data.position();
+            for (int i = 0; i < 16; i++)
+                mW[i] = words.getInt(offset + i * 4);
+            compress();
+            data.position(offset + 64);
+        }
+        mBlockLen = data.remaining();
+        data.get(mBlock, 0, mBlockLen);
+    }
+
+    /**
+     * Finishes a copy of the current state, this instance can keep going
+     *
+     * @return the digest as lower case hex string
+     */
+    String digestToHexString() {
+        final ResumableSHA256 copy = new ResumableSHA256();
+        System.arraycopy(mH, 0, copy.mH, 0, 8);
+        System.arraycopy(mBlock, 0, copy.mBlock, 0, mBlockLen);
+        copy.mBlockLen = mBlockLen;
+        copy.mCount = mCount;
+        return copy.finish();
+    }
+
+    private String finish() {
+        final long bits = mCount * 8L;
+        final byte[] pad = new byte[(mBlockLen < 56 ? 56 : 120) - mBlockLen + 8];
+        pad[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++)
+            pad[pad.length - 1 - i] = (byte) (bits >>> (8 * i));
+        update(pad, 0, pad.length);
+
+        final StringBuilder sb = new StringBuilder(64);
+        for (int h : mH)
+            sb.append(String.format(Locale.ENGLISH, "%08x", h));
+        return sb.toString();
+    }
+
+    /**
+     * @return the intermediate state, to be fed to {@link #fromState(String)}
+     */
+    String getState() {
+        final StringBuilder sb = new StringBuilder(STATE_PREFIX);
+        sb.append(':').append(mCount).append(':');
+        for (int h : mH)
+            sb.append(String.format(Locale.ENGLISH, "%08x", h));
+        sb.append(':');
+        for (int i = 0; i < mBlockLen; i++)
+            sb.append(String.format(Locale.ENGLISH, "%02x", mBlock[i]));
+        return sb.toString();
+    }
+
+    /**
+     * @return restored digest, or null if the state is malformed
+     */
+    static ResumableSHA256 fromState(String state) {
+        if (state == null) return null;
+        try {
+            final String[] parts = state.split(":", -1);
+            if (parts.length != 4 || !STATE_PREFIX.equals(parts[0])
+                    || parts[2].length() != 64) return null;
+            final ResumableSHA256 ret = new ResumableSHA256();
+            ret.mCount = Long.parseLong(parts[1]);
+            for (int i = 0; i < 8; i++)
+                ret.mH[i] = (int) Long.parseLong(parts[2].substring(i * 8, i * 8 + 8), 16);
+            ret.mBlockLen = parts[3].length() / 2;
+            if (ret.mBlockLen >= 64 || ret.mBlockLen != ret.mCount % 64) return null;
+            for (int i = 0; i < ret.mBlockLen; i++)
+                ret.mBlock[i] = (byte) Integer.parseInt(parts[3].substring(i * 2, i * 2 + 2), 16);
+            return ret;
+        } catch (NumberFormatException e) {
+            Logger.ex(e);
+            return null;
+        }
+    }
+
+    private void compress(byte[] block, int offset) {
+        final int[] w = mW;
+        for (int i = 0; i < 16; i++) {
+            final int j = offset + i * 4;
+            w[i] = (block[j] << 24) | ((block[j + 1] & 0xff) << 16)
+                    | ((block[j + 2] & 0xff) << 8) | (block[j + 3] & 0xff);
+        }
+        compress();
+    }
+
+    /**
+     * Runs one block whose first 16 words are already in mW
+     */
+    private void compress() {
+        final int[] w = mW;
+        for (int i = 16; i < 64; i++) {
+            final int s0 = Integer.rotateRight(w[i - 15], 7)
+                    ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            final int s1 = Integer.rotateRight(w[i - 2], 17)
+                    ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = mH[0], b = mH[1], c = mH[2], d = mH[3];
+        int e = mH[4], f = mH[5], g = mH[6], h = mH[7];
+        for (int i = 0; i < 64; i++) {
+            final int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11)
+                    ^ Integer.rotateRight(e, 25);
+            final int ch = (e & f) ^ (~e & g);
+            final int t1 = h + s1 + ch + K[i] + w[i];
+            final int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13)
+                    ^ Integer.rotateRight(a, 22);
+            final int maj = (a & b) ^ (a & c) ^ (b & c);
+            final int t2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        mH[0] += a;
+        mH[1] += b;
+        mH[2] += c;
+        mH[3] += d;
+        mH[4] += e;
+        mH[5] += f;
+        mH[6] += g;
+        mH[7] += h;
+    }
+}
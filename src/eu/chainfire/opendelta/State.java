@@ -19,10 +19,21 @@
  */
 package eu.chainfire.opendelta;
 
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
+/**
+ * Current state of the service. Updates are published through a sequence
+ * lock, so readers always see a consistent set of values, and are handed
+ * to the callbacks on a separate dispatcher thread so the thread calling
+ * update() never runs or waits for them. While a callback is busy, queued
+ * updates for the same state are collapsed into the latest one; a change
+ * of state is always delivered.
+ */
 public class State {
     public static final String ACTION_NONE = "action_none";
     public static final String ACTION_CHECKING = "action_checking";
@@ -80,42 +91,178 @@ public class State {
     );
 
     private static State mState;
-    private String mStateStr = ACTION_NONE;
-    private Float mProgress = null;
-    private Long mCurrent = null;
-    private Long mTotal = null;
-    private String mFilename = null;
-    private Long mMs = null;
-    private int mErrorCode = -1;
-    private List<StateCallback> mStateCallbacks = new CopyOnWriteArrayList<>();
+    // odd while a write is in progress
+    private volatile int mSeq = 0;
+    private volatile String mStateStr = ACTION_NONE;
+    private volatile float mProgress = Float.NaN;
+    private volatile long mCurrent = ProgressSnapshot.UNKNOWN;
+    private volatile long mTotal = ProgressSnapshot.UNKNOWN;
+    private volatile String mFilename = null;
+    private volatile long mMs = ProgressSnapshot.UNKNOWN;
+    private volatile long mRate = ProgressSnapshot.UNKNOWN;
+    private volatile long mEta = ProgressSnapshot.UNKNOWN;
+    private volatile int mErrorCode = -1;
+    private final Object mWriteLock = new Object();
+    // replaced, never modified, so update() can walk it without an iterator
+    private volatile Subscriber[] mSubscribers = new Subscriber[0];
+    private final ArrayDeque<Subscriber> mReady = new ArrayDeque<>();
+
+    private State() {
+        final Thread dispatcher = new Thread(this::dispatch, "StateDispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
 
-    private State() {}
+    private static class Subscriber {
+        final StateCallback callback;
+        final ArrayDeque<ProgressSnapshot> pending = new ArrayDeque<>();
+        // snapshots are recycled, so steady progress allocates nothing
+        final ArrayDeque<ProgressSnapshot> free = new ArrayDeque<>();
+        final ProgressSnapshot delivered = new ProgressSnapshot();
+        boolean scheduled;
+        volatile boolean removed;
+
+        Subscriber(StateCallback callback) {
+            this.callback = callback;
+        }
 
+        /**
+         * @return true if the dispatcher needs to be told about this subscriber
+         */
+        synchronized boolean offer(String state, float progress, long current, long total,
+                String filename, long ms, long rate, long eta, int errorCode) {
+            ProgressSnapshot snapshot = pending.peekLast();
+            if (snapshot == null || !Objects.equals(snapshot.state, state)) {
+                snapshot = free.pollFirst();
+                if (snapshot == null) snapshot = new ProgressSnapshot();
+                pending.addLast(snapshot);
+            }
+            snapshot.set(state, progress, current, total, filename, ms, rate, eta, errorCode);
+            if (scheduled) return false;
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * Moves the oldest pending snapshot into delivered
+         *
+         * @return false if there was none
+         */
+        synchronized boolean poll() {
+            final ProgressSnapshot snapshot = pending.pollFirst();
+            if (snapshot == null) {
+                scheduled = false;
+                return false;
+            }
+            delivered.set(snapshot);
+            free.addLast(snapshot);
+            return true;
+        }
+    }
+
+    /**
+     * The snapshot passed to update() is reused after the call returns
+     */
     public interface StateCallback {
-        void update(String state, Float progress,
-                Long current, Long total, String filename,
-                Long ms, int errorCode);
+        void update(ProgressSnapshot snapshot);
     }
 
+    /**
+     * Adds the callback, it is called with the current state right away
+     * and after every update, always on the dispatcher thread
+     */
     public void addStateCallback(StateCallback callback) {
-        mStateCallbacks.add(callback);
-        callback.update(mStateStr, mProgress, mCurrent, mTotal, mFilename, mMs, mErrorCode);
+        synchronized (mWriteLock) {
+            for (Subscriber subscriber : mSubscribers) {
+                if (subscriber.callback == callback) return;
+            }
+            final Subscriber subscriber = new Subscriber(callback);
+            final Subscriber[] subscribers = Arrays.copyOf(mSubscribers,
+                    mSubscribers.length + 1);
+            subscribers[subscribers.length - 1] = subscriber;
+            mSubscribers = subscribers;
+            // writers are excluded, the fields can be read directly
+            post(subscriber, mStateStr, mProgress, mCurrent, mTotal, mFilename, mMs,
+                    mRate, mEta, mErrorCode);
+        }
     }
 
     public void removeStateCallback(StateCallback callback) {
-        if (!mStateCallbacks.contains(callback)) return;
-        mStateCallbacks.remove(callback);
+        synchronized (mWriteLock) {
+            final List<Subscriber> subscribers = new ArrayList<>();
+            for (Subscriber subscriber : mSubscribers) {
+                if (subscriber.callback == callback) subscriber.removed = true;
+                else subscribers.add(subscriber);
+            }
+            mSubscribers = subscribers.toArray(new Subscriber[0]);
+        }
+    }
+
+    /**
+     * Sends the current state to all callbacks again
+     */
+    public void notifyCallbacks() {
+        synchronized (mWriteLock) {
+            for (Subscriber subscriber : mSubscribers) {
+                post(subscriber, mStateStr, mProgress, mCurrent, mTotal, mFilename, mMs,
+                        mRate, mEta, mErrorCode);
+            }
+        }
     }
 
-    public synchronized void notifyCallbacks() {
-        if (mStateCallbacks.size() == 0) return;
-        for (StateCallback callback : mStateCallbacks) {
-            callback.update(mStateStr, mProgress, mCurrent,
-                    mTotal, mFilename, mMs, mErrorCode);
+    /**
+     * Copies a consistent set of the current values into snapshot, without
+     * blocking the writer
+     */
+    public void getSnapshot(ProgressSnapshot snapshot) {
+        while (true) {
+            final int seq = mSeq;
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            snapshot.set(mStateStr, mProgress, mCurrent, mTotal, mFilename, mMs, mRate, mEta,
+                    mErrorCode);
+            if (mSeq == seq) return;
         }
     }
 
-    public static State getInstance() {
+    private void post(Subscriber subscriber, String state, float progress, long current,
+            long total, String filename, long ms, long rate, long eta, int errorCode) {
+        if (!subscriber.offer(state, progress, current, total, filename, ms, rate, eta,
+                errorCode))
+            return;
+        synchronized (mReady) {
+            mReady.addLast(subscriber);
+            mReady.notify();
+        }
+    }
+
+    private void dispatch() {
+        while (true) {
+            final Subscriber subscriber;
+            synchronized (mReady) {
+                while (mReady.isEmpty()) {
+                    try {
+                        mReady.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                subscriber = mReady.pollFirst();
+            }
+            while (subscriber.poll()) {
+                if (subscriber.removed) continue;
+                try {
+                    subscriber.callback.update(subscriber.delivered);
+                } catch (RuntimeException e) {
+                    Logger.ex(e);
+                }
+            }
+        }
+    }
+
+    public static synchronized State getInstance() {
         if (mState == null) mState = new State();
         return mState;
     }
@@ -149,27 +296,72 @@ public class State {
         update(state, progress, current,  total,  filename,  ms, -1);
     }
 
-    public synchronized void update(String state, Float progress,
+    public void update(String state, Float progress,
             Long current, Long total, String filename, Long ms, int errorCode) {
-        mStateStr = state;
-        mProgress = progress;
-        mCurrent = current;
-        mTotal = total;
-        mFilename = filename;
-        mMs = ms;
-        mErrorCode = errorCode;
-        notifyCallbacks();
+        update(state, progress != null ? progress : Float.NaN, unbox(current), unbox(total),
+                filename, unbox(ms), errorCode);
+    }
+
+    public void update(String state, float progress,
+            long current, long total, String filename, long ms) {
+        update(state, progress, current, total, filename, ms, -1);
+    }
+
+    public void update(String state, float progress,
+            long current, long total, String filename, long ms, int errorCode) {
+        update(state, progress, current, total, filename, ms, ProgressSnapshot.UNKNOWN,
+                ProgressSnapshot.UNKNOWN, errorCode);
+    }
+
+    /**
+     * @param rate from ThroughputEstimator.getRate()
+     * @param eta from ThroughputEstimator.getEta()
+     */
+    public void update(String state, float progress,
+            long current, long total, String filename, long ms, long rate, long eta) {
+        update(state, progress, current, total, filename, ms, rate, eta, -1);
+    }
+
+    /**
+     * Boxes nothing and allocates nothing, meant for progress ticks
+     */
+    public void update(String state, float progress,
+            long current, long total, String filename, long ms, long rate, long eta,
+            int errorCode) {
+        // writers only ever wait for each other, never for the callbacks
+        synchronized (mWriteLock) {
+            mSeq++;
+            mStateStr = state;
+            mProgress = progress;
+            mCurrent = current;
+            mTotal = total;
+            mFilename = filename;
+            mMs = ms;
+            mRate = rate;
+            mEta = eta;
+            mErrorCode = errorCode;
+            mSeq++;
+            final Subscriber[] subscribers = mSubscribers;
+            for (int i = 0; i < subscribers.length; i++) {
+                post(subscribers[i], state, progress, current, total, filename, ms, rate,
+                        eta, errorCode);
+            }
+        }
+    }
+
+    private static long unbox(Long value) {
+        return value != null ? value : ProgressSnapshot.UNKNOWN;
     }
 
-    public synchronized String getState() {
+    public String getState() {
         return mStateStr;
     }
 
-    public synchronized boolean isProgressState() {
+    public boolean isProgressState() {
         return isProgressState(mStateStr);
     }
 
-    public synchronized boolean isErrorState() {
+    public boolean isErrorState() {
         return isErrorState(mStateStr);
     }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.os.SystemClock;
+
+/**
+ * Download speed and ETA for the notification, the UI and the log. The
+ * rate is an exponentially weighted moving average of samples taken at
+ * least MIN_SAMPLE_MS apart, each weighted by its length, so roughly the
+ * last TAU_MS count. Only time between start() and pause() is counted, and
+ * the active time carries over a pause through PREF_LAST_DOWNLOAD_TIME, so
+ * neither the average nor the ETA jump after a resume.
+ */
+class ThroughputEstimator {
+    private static final double TAU_MS = 5000.0;
+    private static final long MIN_SAMPLE_MS = 500L;
+
+    private long mBytes;
+    private long mSampleBytes;
+    private long mSampleAt;
+    private long mStartedAt;
+    private long mActiveMs;
+    // bytes per second, negative until known
+    private double mRate = -1;
+    private double mInstantRate = -1;
+
+    /**
+     * @param bytes what was already done before
+     * @param activeMs the time spent on that, the average rate seeds the
+     *        estimate
+     */
+    public ThroughputEstimator(long bytes, long activeMs) {
+        mBytes = bytes;
+        mSampleBytes = bytes;
+        mActiveMs = Math.max(activeMs, 0);
+        if (bytes > 0 && mActiveMs >= MIN_SAMPLE_MS) mRate = bytes * 1000.0 / mActiveMs;
+    }
+
+    /**
+     * Starts counting time, bytes is where the transfer continues
+     */
+    public synchronized void start(long bytes) {
+        if (mStartedAt != 0) return;
+        mStartedAt = SystemClock.elapsedRealtime();
+        mSampleAt = mStartedAt;
+        mBytes = bytes;
+        mSampleBytes = bytes;
+    }
+
+    public synchronized void pause() {
+        if (mStartedAt == 0) return;
+        mActiveMs += SystemClock.elapsedRealtime() - mStartedAt;
+        mStartedAt = 0;
+    }
+
+    /**
+     * @param bytes total done so far
+     */
+    public synchronized void update(long bytes) {
+        final long now = SystemClock.elapsedRealtime();
+        if (mStartedAt == 0) {
+            start(bytes);
+            return;
+        }
+        mBytes = bytes;
+        final long dt = now - mSampleAt;
+        if (dt < MIN_SAMPLE_MS) return;
+        // failed segments are taken back, never report a negative rate
+        mInstantRate = Math.max(bytes - mSampleBytes, 0) * 1000.0 / dt;
+        final double alpha = 1.0 - Math.exp(-dt / TAU_MS);
+        mRate = mRate < 0 ? mInstantRate : mRate + alpha * (mInstantRate - mRate);
+        mSampleBytes = bytes;
+        mSampleAt = now;
+    }
+
+    /**
+     * @return time spent transferring, over all sessions
+     */
+    public synchronized long getActiveMs() {
+        return mActiveMs + (mStartedAt != 0
+                ? SystemClock.elapsedRealtime() - mStartedAt : 0);
+    }
+
+    /**
+     * @return smoothed bytes per second, or ProgressSnapshot.UNKNOWN
+     */
+    public synchronized long getRate() {
+        return mRate >= 0 ? Math.round(mRate) : ProgressSnapshot.UNKNOWN;
+    }
+
+    /**
+     * @return bytes per second over the last sample, or ProgressSnapshot.UNKNOWN
+     */
+    public synchronized long getInstantRate() {
+        return mInstantRate >= 0 ? Math.round(mInstantRate) : ProgressSnapshot.UNKNOWN;
+    }
+
+    /**
+     * @return bytes per second over all active time, or ProgressSnapshot.UNKNOWN
+     */
+    public synchronized long getAverageRate() {
+        final long activeMs = getActiveMs();
+        return activeMs > 0 ? mBytes * 1000L / activeMs : ProgressSnapshot.UNKNOWN;
+    }
+
+    /**
+     * @return seconds left until total at the smoothed rate, or
+     *         ProgressSnapshot.UNKNOWN
+     */
+    public synchronized long getEta(long total) {
+        if (mRate <= 0 || total <= 0) return ProgressSnapshot.UNKNOWN;
+        return Math.round(Math.max(total - mBytes, 0) / mRate);
+    }
+}
@@ -48,7 +48,10 @@ import android.os.StatFs;
 import android.os.SystemClock;
 import android.os.UpdateEngine;
 import android.preference.PreferenceManager;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -56,15 +59,28 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.lang.StringBuilder;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -137,11 +153,17 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
     public static final String PREF_FILE_FLASH = "file_flash";
 
     private static final long SNOOZE_MS = AlarmManager.INTERVAL_HALF_DAY;
+    private static final int MAX_DELTA_CHAIN = 30;
+    private static final int CHANGELOG_MAX_BUILDS = 9;
+    private static final int CHANGELOG_THREADS = 4;
+    private static final long CHANGELOG_TIMEOUT_MS = 20000L;
 
     public static final String PREF_AUTO_UPDATE_METERED_NETWORKS = "auto_update_metered_networks";
 
     public static final String PREF_LATEST_FULL_NAME = "latest_full_name";
     public static final String PREF_DOWNLOAD_SIZE = "download_size_long";
+    // update and signature files of the delta chain being downloaded
+    private static final String PREF_DELTA_FILES = "delta_files";
 
     public static final int PREF_AUTO_DOWNLOAD_DISABLED = 0;
     public static final int PREF_AUTO_DOWNLOAD_CHECK = 1;
@@ -166,26 +188,35 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
     private boolean mIsUpdateRunning;
     private int mFailedUpdateCount;
     private SharedPreferences mPrefs;
-    private Notification.Builder mFlashNotificationBuilder;
     private Notification.Builder mDownloadNotificationBuilder;
+    // post progress off the download and flash threads
+    private HandlerThread mNotificationThread;
+    private NotificationUpdater mDownloadNotifier;
+    private NotificationUpdater mUpdateNotifier;
 
     // url override
     private boolean mIsUrlOverride;
     private String mSumUrlOvr;
+    // mirrors of the latest build listed in the json
+    private List<String> mMirrorsOvr;
+    // paces automatic downloads, null when the user asked for the download
+    private RateLimiter mRateLimiter;
 
-    private long[] mLastProgressTime;
+    private long mLastProgressTime;
+    private volatile ThroughputEstimator mFlashEstimator;
     private final ProgressListener mProgressListener = new ProgressListener() {
         private String status;
 
         @Override
         public void onProgress(float progress, long current, long total) {
+            mFlashEstimator.update(current);
             long now = SystemClock.elapsedRealtime();
-            if (now >= mLastProgressTime[0] + 250L) {
-                long ms = SystemClock.elapsedRealtime() - mLastProgressTime[1];
-                int sec = (int) (((((float) total / (float) current) * (float) ms) - ms) / 1000f);
-                mState.update(State.ACTION_AB_FLASH, progress, current, total, this.status, ms);
-                setFlashNotificationProgress((int) progress, sec);
-                mLastProgressTime[0] = now;
+            if (now >= mLastProgressTime + 250L) {
+                final long eta = mFlashEstimator.getEta(total);
+                mState.update(State.ACTION_AB_FLASH, progress, current, total, this.status,
+                        mFlashEstimator.getActiveMs(), mFlashEstimator.getRate(), eta);
+                mUpdateNotifier.setProgress((int) progress, (int) eta, 0f);
+                mLastProgressTime = now;
             }
         }
 
@@ -197,10 +228,8 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
     private final State.StateCallback mStopWhenDoneCallback =
             new State.StateCallback() {
         @Override
-        public void update(String state, Float progress,
-                Long current, Long total, String filename,
-                Long ms, int errorCode) {
-            if (State.isProgressState(state) || mIsUpdateRunning)
+        public void update(ProgressSnapshot snapshot) {
+            if (State.isProgressState(snapshot.state) || mIsUpdateRunning)
                 return;
             Logger.d("Stopping service");
             mState.removeStateCallback(this);
@@ -236,6 +265,8 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         super.onCreate();
 
         mConfig = Config.getInstance(this);
+        HttpCache.init(new File(getCacheDir(), "http"));
+        Download.setTransport(HttpTransport.create(this, mConfig.getHttpTransport()));
 
         mWakeLock = ((PowerManager) getSystemService(POWER_SERVICE))
                 .newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "OpenDelta:WakeLock");
@@ -247,6 +278,12 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         mHandler = new Handler(mHandlerThread.getLooper());
 
         mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        mNotificationThread = new HandlerThread("OpenDelta Notifications");
+        mNotificationThread.start();
+        mDownloadNotifier = new NotificationUpdater(mNotificationManager, NOTIFICATION_BUSY,
+                mNotificationThread.getLooper());
+        mUpdateNotifier = new NotificationUpdater(mNotificationManager, NOTIFICATION_UPDATE,
+                mNotificationThread.getLooper());
         mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         createInstallNotificationChannel();
         createUpdateNotificationChannel();
@@ -276,6 +313,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         mBatteryState.stop();
         mScreenState.stop();
         mHandlerThread.quitSafely();
+        mNotificationThread.quitSafely();
 
         super.onDestroy();
     }
@@ -329,7 +367,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
 
                 if (mDownload != null) mDownload.stop();
                 if (mNotificationManager != null)
-                    mNotificationManager.cancel(NOTIFICATION_BUSY);
+                    mDownloadNotifier.cancel();
                 // if we have a paused download in progress we need to manually stop it
                 if (mState.equals(State.ERROR_DOWNLOAD_RESUME) ||
                         mState.equals(State.ACTION_DOWNLOADING_PAUSED)) {
@@ -337,8 +375,13 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                     File[] files = new File(mConfig.getPathBase()).listFiles();
                     if (files != null && files.length > 0)
                         for (File file : files)
-                            if (file.isFile() && file.getName().endsWith(".part"))
+                            if (file.isFile() && file.getName().endsWith(".part")) {
                                 file.delete();
+                                DownloadJournal.delete(file);
+                            }
+                    for (String name : getDeltaFiles())
+                        new File(mConfig.getPathBase() + name).delete();
+                    mPrefs.edit().remove(PREF_DELTA_FILES).commit();
                     autoState(false);
                 }
                 break;
@@ -469,14 +512,14 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
             final String flashFilename = mPrefs.getString(PREF_CURRENT_AB_FILENAME_NAME, null);
             if (flashFilename != null && !flashFilename.isEmpty()) {
                 final String _filename = new File(flashFilename).getName();
-                if (mLastProgressTime == null)
-                    mLastProgressTime = new long[] { 0, SystemClock.elapsedRealtime() };
+                if (mFlashEstimator == null)
+                    mFlashEstimator = new ThroughputEstimator(0, 0);
                 mProgressListener.setStatus(_filename);
                 mState.update(State.ACTION_AB_FLASH, 0f, 0L, 100L, _filename, null);
                 final int code = ABUpdate.getInstance(this).resume();
                 mIsUpdateRunning = code < 0;
                 if (!mIsUpdateRunning) {
-                    mNotificationManager.cancel(NOTIFICATION_UPDATE);
+                    mUpdateNotifier.cancel();
                     mState.update(State.ERROR_AB_FLASH, code);
                 } else {
                     newFlashNotification(_filename);
@@ -503,31 +546,42 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         if (readyToDownload) {
             // first check if we have a download that was in progress
             // check if we have a .part file that was saved as latest
+            // or that belongs to the delta chain leading to it
+            final Set<String> deltaFiles = getDeltaFiles();
             File found = null;
             File[] files = new File(mConfig.getPathBase()).listFiles();
             if (files != null && files.length > 0) {
                 for (File file : files) {
                     String currName = file.getName();
                     if (file.isFile() && currName.endsWith(".part")) {
-                        if (currName.equals(latestBuild + ".part"))
+                        if (currName.equals(latestBuild + ".part") || deltaFiles.contains(
+                                currName.substring(0, currName.length() - 5)))
                             found = file;
-                        else
+                        else {
                             file.delete(); // remove old .part files
+                            DownloadJournal.delete(file);
+                        }
                     }
                 }
             }
             if (found != null) {
                 // confirm we're not already downloading
                 if (mState.getState().equals(State.ACTION_DOWNLOADING)) return;
-                long total = mPrefs.getLong(PREF_DOWNLOAD_SIZE, 1500000000L /* 1.5 GB */);
-                final long current = found.length();
+                final String foundName = found.getName();
+                final String filename = foundName.substring(0, foundName.length() - 5);
+                long total = DownloadJournal.getLength(found);
+                if (total <= 0)
+                    total = mPrefs.getLong(PREF_DOWNLOAD_SIZE, 1500000000L /* 1.5 GB */);
+                final long current = DownloadJournal.getCompletedBytes(found);
                 final long lastTime = mPrefs.getLong(PREF_LAST_DOWNLOAD_TIME, 0);
                 final float progress = ((float) current / (float) total) * 100f;
-                mState.update(State.ACTION_DOWNLOADING_PAUSED, progress, current, total, latestBuild, lastTime);
+                final ThroughputEstimator estimator = new ThroughputEstimator(current, lastTime);
+                mState.update(State.ACTION_DOWNLOADING_PAUSED, progress, current, total, filename,
+                        lastTime, estimator.getRate(), estimator.getEta(total));
                 // display paused notification with the proper title
                 newDownloadNotification(true, getString(R.string.state_action_downloading_paused));
                 mDownloadNotificationBuilder.setProgress(100, Math.round(progress), false);
-                mNotificationManager.notify(NOTIFICATION_BUSY, mDownloadNotificationBuilder.build());
+                mDownloadNotifier.show(mDownloadNotificationBuilder, null);
                 return;
             }
 
@@ -543,6 +597,11 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                 PREF_LAST_CHECK_TIME_DEFAULT));
     }
 
+    // helper for autoState
+    private Set<String> getDeltaFiles() {
+        return mPrefs.getStringSet(PREF_DELTA_FILES, Collections.emptySet());
+    }
+
     // helper for autoState
     private void maybeNotify(boolean notify, String latest, String flashFilename) {
         if (!notify) return;
@@ -586,8 +645,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                 ? flashFilename
                 : latest.substring(0, latest.lastIndexOf('.'));
 
-        mNotificationManager.notify(
-                NOTIFICATION_UPDATE,
+        mUpdateNotifier.show(
                 (new Notification.Builder(this, UPDATE_NOTIFICATION_CHANNEL_ID))
                 .setSmallIcon(R.drawable.stat_notify_update)
                 .setContentTitle(readyToFlash
@@ -597,19 +655,27 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                 .setOnlyAlertOnce(true)
                 .setContentIntent(getNotificationIntent(false))
                 .setDeleteIntent(getNotificationIntent(true))
-                .setContentText(notifyFileName).build());
+                .setContentText(notifyFileName), null);
     }
 
     private void newFlashNotification(String filename) {
-        mFlashNotificationBuilder = new Notification.Builder(this, INSTALL_NOTIFICATION_CHANNEL_ID);
-        mFlashNotificationBuilder.setSmallIcon(R.drawable.stat_notify_update)
+        final String etaFormat = getString(R.string.notify_eta_remaining);
+        final Notification.Builder builder =
+                new Notification.Builder(this, INSTALL_NOTIFICATION_CHANNEL_ID);
+        builder.setSmallIcon(R.drawable.stat_notify_update)
                 .setContentTitle(getString(R.string.state_action_ab_flash))
                 .setShowWhen(true)
                 .setOngoing(true)
                 .setOnlyAlertOnce(true)
                 .setContentIntent(getNotificationIntent(false))
-                .setContentText(filename);
-        setFlashNotificationProgress(0, 0);
+                .setContentText(filename)
+                .setProgress(100, 0, false)
+                .setSubText("0%");
+        mUpdateNotifier.show(builder, (percent, sec, kibps) -> {
+            if (percent <= 0) return "0%";
+            if (sec < 0) return String.format(Locale.ENGLISH, "%d%%", percent);
+            return String.format(Locale.ENGLISH, etaFormat, percent, sec / 60, sec % 60);
+        });
     }
 
     private void newDownloadNotification(boolean isPaused, String title) {
@@ -660,7 +726,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                 .setContentIntent(getNotificationIntent(false));
         if (hasName) builder.setContentText(flashFilename);
 
-        mNotificationManager.notify(NOTIFICATION_UPDATE, builder.build());
+        mUpdateNotifier.show(builder, null);
     }
 
     private void startErrorNotification() {
@@ -714,33 +780,61 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         String buildData = Download.asString(url);
         if (buildData == null || buildData.length() == 0) {
             mState.update(State.ERROR_DOWNLOAD, url, Download.ERROR_CODE_NEWEST_BUILD);
-            mNotificationManager.cancel(NOTIFICATION_BUSY);
+            mDownloadNotifier.cancel();
             return null;
         }
-        JSONObject object;
-        try {
-            object = new JSONObject(buildData);
-            JSONArray updatesList = object.getJSONArray("response");
+        // one forward pass over the list, without building a tree of it
+        try (JsonReader reader = new JsonReader(new StringReader(buildData))) {
             String latestBuild = null;
             String urlOverride = null;
             String sumOverride = null;
-            for (int i = 0; i < updatesList.length(); i++) {
-                if (updatesList.isNull(i)) {
+            List<String> mirrors = null;
+            boolean hasResponse = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals("response")) {
+                    reader.skipValue();
                     continue;
                 }
-                try {
-                    JSONObject build = updatesList.getJSONObject(i);
-                    String fileName = new File(build.getString("filename")).getName();
+                hasResponse = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    String fileName = null;
                     String urlOvr = null;
                     String sumOvr = null;
-                    if (build.has("url"))
-                        urlOvr = build.getString("url");
-                    if (build.has("sha256url"))
-                        sumOvr = build.getString("sha256url");
+                    List<String> buildMirrors = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.nextName()) {
+                            case "filename":
+                                fileName = nextStringOrNull(reader);
+                                break;
+                            case "url":
+                                urlOvr = nextStringOrNull(reader);
+                                break;
+                            case "sha256url":
+                                sumOvr = nextStringOrNull(reader);
+                                break;
+                            case "mirrors":
+                                buildMirrors = nextStringList(reader);
+                                break;
+                            default:
+                                reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (fileName == null) continue;
+                    fileName = new File(fileName).getName();
                     Logger.d("parsed from json:");
                     Logger.d("fileName= " + fileName);
-                    if (isMatchingImage(fileName))
+                    if (isMatchingImage(fileName)) {
                         latestBuild = fileName;
+                        mirrors = buildMirrors;
+                    }
                     if (urlOvr != null && !urlOvr.equals("")) {
                         urlOverride = urlOvr;
                         Logger.d("url= " + urlOverride);
@@ -749,10 +843,12 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                         sumOverride = sumOvr;
                         Logger.d("sha256 url= " + sumOverride);
                     }
-                } catch (JSONException e) {
-                    Logger.ex(e);
                 }
+                reader.endArray();
             }
+            reader.endObject();
+            if (!hasResponse) throw new IOException("no response in " + url);
+            mMirrorsOvr = mirrors;
 
             List<String> ret = new ArrayList<>();
             if (latestBuild != null) {
@@ -775,18 +871,44 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         return null;
     }
 
+    private static List<String> nextStringList(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        final List<String> ret = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final String value = nextStringOrNull(reader);
+            if (value != null && !value.isEmpty()) ret.add(value);
+        }
+        reader.endArray();
+        return ret;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
     public ProgressListener getSUMProgress(String state, String filename) {
-        final long[] last = new long[] { 0, SystemClock.elapsedRealtime() };
+        final long[] last = new long[] { 0 };
+        final ThroughputEstimator estimator = new ThroughputEstimator(0, 0);
         final String _state = state;
         final String _filename = filename;
 
         return new ProgressListener() {
             @Override
             public void onProgress(float progress, long current, long total) {
+                estimator.update(current);
                 long now = SystemClock.elapsedRealtime();
                 if (now >= last[0] + 16L) {
                     mState.update(_state, progress, current, total, _filename,
-                            SystemClock.elapsedRealtime() - last[1]);
+                            estimator.getActiveMs(), estimator.getRate(),
+                            estimator.getEta(total));
                     last[0] = now;
                 }
             }
@@ -829,7 +951,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
             return false;
         }
 
-        mNotificationManager.cancel(NOTIFICATION_UPDATE);
+        mUpdateNotifier.cancel();
         mNotificationManager.cancel(NOTIFICATION_ERROR);
 
         if (!mNetworkState.isConnected()) {
@@ -865,7 +987,36 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         return false;
     }
 
-    private void downloadBuild(String url, String sha256Sum, String imageName) {
+    /**
+     * Limit for automatic downloads: per network type, and lower still while
+     * the screen is on so the user's own traffic comes first
+     *
+     * @return bytes per second, 0 for no limit
+     */
+    private long getDownloadRate() {
+        long rate = mConfig.getDownloadRate(mNetworkState.isMetered());
+        final long active = mConfig.getDownloadRateActive();
+        if (active > 0 && mScreenState.getState())
+            rate = rate > 0 ? Math.min(rate, active) : active;
+        return rate;
+    }
+
+    /**
+     * @return mirrors of the given build from the json and the config,
+     *         without the primary url
+     */
+    private List<String> getMirrors(String url, String imageName) {
+        final List<String> mirrors = new ArrayList<>();
+        if (mMirrorsOvr != null)
+            mirrors.addAll(mMirrorsOvr);
+        for (String base : mConfig.getUrlMirrors())
+            mirrors.add(base + imageName + mConfig.getUrlSuffix());
+        mirrors.remove(url);
+        return mirrors;
+    }
+
+    private void downloadBuild(String url, String sha256Sum, ChunkManifest manifest,
+            String imageName) {
         String fn = mConfig.getPathBase() + imageName;
         File f = new File(fn + ".part");
         Logger.d("download: %s --> %s", url, fn);
@@ -878,46 +1029,331 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
                 if (file.isFile() && currName.endsWith(".part")
                         && !currName.equals(f.getName())) {
                     file.delete();
+                    DownloadJournal.delete(file);
                 }
             }
         }
 
-        mDownload = new Download(url, f, sha256Sum, this);
+        mDownload = new Download(url, f, sha256Sum, manifest, this);
+        mDownload.setMirrors(getMirrors(url, imageName));
+        mDownload.setRateLimiter(mRateLimiter);
         if (mDownload.start() && f.renameTo(new File(fn))) {
             Logger.d("success");
             mPrefs.edit().putString(PREF_READY_FILENAME_NAME, fn).commit();
-            mNotificationManager.cancel(NOTIFICATION_BUSY);
+            mDownloadNotifier.cancel();
             startNotification(null, fn);
         } else {
             if (mDownload.getStatus() == Download.STATUS_DOWNLOAD_STOP) {
                 f.delete();
+                DownloadJournal.delete(f);
                 Logger.d("download stopped");
                 autoState(false);
-                mNotificationManager.cancel(NOTIFICATION_BUSY);
+                mDownloadNotifier.cancel();
             } else if (mDownload.getStatus() != Download.STATUS_DOWNLOAD_RESUME &&
                        !mState.equals(State.ERROR_DOWNLOAD) &&
                        !mState.equals(State.ERROR_DOWNLOAD_SHA)) {
                 // either pause or error
-                final Long current = f.length();
-                final Long total = mPrefs.getLong(PREF_DOWNLOAD_SIZE, 1500000000L /* 1.5GB */);
-                final Long lastTime = mPrefs.getLong(PREF_LAST_DOWNLOAD_TIME, 0);
+                final long current = DownloadJournal.getCompletedBytes(f);
+                final long total = mPrefs.getLong(PREF_DOWNLOAD_SIZE, 1500000000L /* 1.5GB */);
+                final long lastTime = mPrefs.getLong(PREF_LAST_DOWNLOAD_TIME, 0);
                 final float progress = ((float) current / (float) total) * 100f;
                 final boolean isPause = mDownload.getStatus() == Download.STATUS_DOWNLOAD_PAUSE;
                 final String newState = isPause ? State.ACTION_DOWNLOADING_PAUSED
                                                 : State.ERROR_DOWNLOAD_RESUME;
                 Logger.d("download " + (isPause ? "paused" : "error"));
-                mState.update(newState, progress, current, total, imageName, lastTime);
+                final ThroughputEstimator estimator = new ThroughputEstimator(current, lastTime);
+                mState.update(newState, progress, current, total, imageName, lastTime,
+                        estimator.getRate(), estimator.getEta(total));
                 // display paused notification with the proper title
                 String title = getString(R.string.state_action_downloading_paused);
                 if (!isPause) {
                     title = getString(R.string.state_error_download) + " (" +
                             getString(R.string.state_error_download_extra_resume) + ")";
                 }
-                mNotificationManager.cancel(NOTIFICATION_BUSY);
+                mDownloadNotifier.cancel();
                 newDownloadNotification(true, title);
                 mDownloadNotificationBuilder.setProgress(100, Math.round(progress), false);
-                mNotificationManager.notify(NOTIFICATION_BUSY, mDownloadNotificationBuilder.build());
+                mDownloadNotifier.show(mDownloadNotificationBuilder, null);
+            }
+        }
+    }
+
+    /**
+     * Tries to reconstruct latestBuild from the installed build by chaining
+     * the published deltas, if that is smaller than the full download.
+     *
+     * @return true if the update is ready or the user stopped it, false to
+     *         fall back to the full download
+     */
+    private boolean deltaUpdate(String latestBuild, long fullSize) {
+        if (mIsUrlOverride) return false;
+        final List<DeltaInfo> deltas = getDeltaChain(latestBuild);
+        if (deltas == null) return false;
+
+        final DeltaInfo first = deltas.get(0);
+        final DeltaInfo last = deltas.get(deltas.size() - 1);
+        final String currentFilename = mPrefs.getString(PREF_CURRENT_FILENAME_NAME, null);
+        final File current = currentFilename != null ? new File(currentFilename) : null;
+        if (current == null || !current.getName().equals(first.getIn().name)
+                || current.length() != first.getIn().official.size) {
+            Logger.d("delta: installed build %s not available", first.getIn().name);
+            return false;
+        }
+
+        long deltaSize = last.getSignature().update.size;
+        for (DeltaInfo delta : deltas) {
+            // replaced builds are marked by an update larger than the full zip
+            if (delta.getUpdate().update.size > delta.getOut().official.size) {
+                Logger.d("delta: %s is marked for full download", delta.getOut().name);
+                return false;
+            }
+            deltaSize += delta.getUpdate().update.size;
+        }
+        Logger.d("delta: %d deltas with %d bytes, full is %d bytes",
+                deltas.size(), deltaSize, fullSize);
+        if (fullSize > 0 && deltaSize >= fullSize) return false;
+
+        final String path = mConfig.getPathBase();
+        final Set<String> deltaFiles = new HashSet<>();
+        for (DeltaInfo delta : deltas) {
+            deltaFiles.add(delta.getUpdate().name);
+            deltaFiles.add(delta.getSignature().name);
+        }
+        // lets autoState keep their .part files while paused
+        mPrefs.edit().putStringSet(PREF_DELTA_FILES, deltaFiles).commit();
+        final List<File> temp = new ArrayList<>();
+        boolean done = false;
+        mDownload = null;
+        try {
+            File in = new File(path + first.getIn().name + ".store");
+            temp.add(in);
+            mState.update(State.ACTION_APPLYING, first.getIn().name);
+            if (Native.zipadjustCompat(current.getPath(), in.getPath(), 1) != 1) {
+                Logger.d("delta: zipadjust failed for %s", current.getName());
+                return false;
+            }
+            if (!checkDeltaFile(in, first.getIn().store)) return false;
+
+            for (DeltaInfo delta : deltas) {
+                final File out = new File(path + delta.getOut().name + ".store");
+                temp.add(out);
+                if (!patchDelta(in, delta.getUpdate(), out, delta.getOut().store))
+                    return mDownload != null && mDownload.getStatus() >= 0;
+                in.delete();
+                in = out;
+            }
+
+            final String fn = path + latestBuild;
+            if (!patchDelta(in, last.getSignature(), new File(fn), last.getOut().official))
+                return mDownload != null && mDownload.getStatus() >= 0;
+
+            done = true;
+            Logger.d("delta: success");
+            mPrefs.edit().putString(PREF_READY_FILENAME_NAME, fn).commit();
+            mDownloadNotifier.cancel();
+            startNotification(null, fn);
+            return true;
+        } finally {
+            for (File file : temp)
+                file.delete();
+            if (done || (mDownload != null
+                    && mDownload.getStatus() == Download.STATUS_DOWNLOAD_STOP)) {
+                for (DeltaInfo delta : deltas) {
+                    new File(path + delta.getUpdate().name).delete();
+                    new File(path + delta.getSignature().name).delete();
+                }
+            }
+            if (done || mDownload == null
+                    || mDownload.getStatus() != Download.STATUS_DOWNLOAD_PAUSE)
+                mPrefs.edit().remove(PREF_DELTA_FILES).commit();
+            if (!done && mDownload != null && mDownload.getStatus() >= 0) {
+                autoState(false);
+                mDownloadNotifier.cancel();
+            }
+        }
+    }
+
+    /**
+     * Follows the .delta files, named after their input build, from the
+     * installed build up to latestBuild.
+     */
+    private List<DeltaInfo> getDeltaChain(String latestBuild) {
+        final List<DeltaInfo> deltas = new ArrayList<>();
+        String name = mConfig.getFilenameBase();
+        while (deltas.size() < MAX_DELTA_CHAIN) {
+            final DeltaInfo delta = DeltaInfo.fromString(Download.asString(
+                    mConfig.getUrlBaseUpdate() + name + ".delta" + mConfig.getUrlSuffix()));
+            if (delta == null || delta.getVersion() != 1) break;
+            deltas.add(delta);
+            final String out = delta.getOut().name;
+            if (out.equals(latestBuild)) return deltas;
+            if (!out.endsWith(".zip")) break;
+            name = out.substring(0, out.length() - 4);
+        }
+        Logger.d("delta: no chain from %s to %s", mConfig.getFilenameBase(), latestBuild);
+        return null;
+    }
+
+    /**
+     * Produces out from in with the given patch. A patch that was downloaded
+     * before is applied from disk, otherwise it is applied while it is being
+     * downloaded: the decoder follows the .part file as it grows and hashes
+     * its output on the way, so download, patch and verification overlap
+     * instead of running one after another.
+     */
+    private boolean patchDelta(File in, DeltaInfo.FileUpdate update, File out,
+            DeltaInfo.FileSizeDigest expected) {
+        final String fn = mConfig.getPathBase() + update.name;
+        final File file = new File(fn);
+        if (file.exists() && file.length() == update.update.size
+                && update.update.digest.equals(getDeltaFileDigest(file, update.update,
+                        getSUMProgress(State.ACTION_CHECKING_SUM, update.name)))) {
+            Logger.d("delta: using existing %s", update.name);
+            return applyDelta(in, file, out, expected);
+        }
+        file.delete();
+
+        final File part = new File(fn + ".part");
+        // without a sha256 the patch is only checked through its output
+        final Download download = new Download(mConfig.getUrlBaseUpdate() + update.name
+                + mConfig.getUrlSuffix(), part,
+                update.update.isSHA256() ? update.update.digest : null, this);
+        download.setRateLimiter(mRateLimiter);
+        mDownload = download;
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(expected.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            Logger.ex(e);
+            return false;
+        }
+        final IOException[] error = new IOException[1];
+        final AtomicBoolean rejected = new AtomicBoolean(false);
+        final Thread decoder = new Thread(() -> {
+            try (InputStream is = new BufferedInputStream(
+                    download.getFollowingStream(), 262144)) {
+                VCDiffDecoder.decode(in, is, out, digest);
+            } catch (IOException e) {
+                error[0] = e;
+                // no use fetching the rest of a patch that doesn't apply
+                synchronized (download) {
+                    if (download.getStatus() < 0) {
+                        rejected.set(true);
+                        download.stop();
+                    }
+                }
+            }
+        });
+        Logger.d("delta: patching %s while downloading", update.name);
+        decoder.start();
+        final boolean downloaded = download.start() && part.renameTo(file);
+        try {
+            decoder.join();
+        } catch (InterruptedException e) {
+            Logger.ex(e);
+            out.delete();
+            return false;
+        }
+        if (rejected.get()) {
+            // the decoder stopped the download, not the user, so fall back
+            Logger.ex(error[0]);
+            download.resetState();
+            out.delete();
+            return false;
+        }
+        if (!downloaded) {
+            Logger.d("delta: download of %s failed", update.name);
+            out.delete();
+            return false;
+        }
+        if (error[0] != null) {
+            Logger.ex(error[0]);
+            out.delete();
+            return false;
+        }
+        final String sum = Download.digestToHexString(digest);
+        Logger.d("delta: %s %s=%s expected=%s", out.getName(), expected.algorithm, sum,
+                expected.digest);
+        if (out.length() != expected.size || !expected.digest.equals(sum)) {
+            out.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean applyDelta(File in, File patch, File out,
+            DeltaInfo.FileSizeDigest expected) {
+        Logger.d("delta: applying %s", patch.getName());
+        final ProgressListener listener = getSUMProgress(State.ACTION_APPLYING_PATCH,
+                out.getName());
+        // dedelta doesn't report progress, so watch the output grow
+        final Thread monitor = new Thread(() -> {
+            try {
+                while (true) {
+                    final long current = out.length();
+                    listener.onProgress(getProgress(current, expected.size),
+                            current, expected.size);
+                    Thread.sleep(250);
+                }
+            } catch (InterruptedException ignored) {
             }
+        });
+        monitor.start();
+        final int result;
+        try {
+            result = Native.dedeltaCompat(in.getPath(), patch.getPath(), out.getPath());
+        } finally {
+            monitor.interrupt();
+        }
+        if (result != 1) {
+            Logger.d("delta: dedelta failed with %d", result);
+            out.delete();
+            return false;
+        }
+        if (!checkDeltaFile(out, expected)) {
+            out.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean checkDeltaFile(File file, DeltaInfo.FileSizeDigest expected) {
+        if (file.length() != expected.size) {
+            Logger.d("delta: %s has size %d, expected %d", file.getName(),
+                    file.length(), expected.size);
+            return false;
+        }
+        final String sum = getDeltaFileDigest(file, expected,
+                getSUMProgress(State.ACTION_APPLYING_SUM, file.getName()));
+        Logger.d("delta: %s %s=%s expected=%s", file.getName(), expected.algorithm, sum,
+                expected.digest);
+        return expected.digest.equals(sum);
+    }
+
+    /**
+     * @return hex digest of file in the algorithm of expected, or null if it
+     *         can't be read
+     */
+    private static String getDeltaFileDigest(File file, DeltaInfo.FileSizeDigest expected,
+            ProgressListener progressListener) {
+        if (expected.isSHA256()) return getFileSHA256(file, progressListener);
+        // .delta files from opendelta.sh only carry md5
+        try (FileInputStream is = new FileInputStream(file)) {
+            final MessageDigest digest = MessageDigest.getInstance(expected.algorithm);
+            final byte[] buffer = new byte[1024 * 1024];
+            final long total = file.length();
+            long current = 0;
+            int r;
+            while ((r = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, r);
+                current += r;
+                if (progressListener != null)
+                    progressListener.onProgress(getProgress(current, total), current, total);
+            }
+            return Download.digestToHexString(digest);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Logger.ex(e);
+            return null;
         }
     }
 
@@ -931,7 +1367,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         final File file = new File(fn);
         if (latestSUM != null){
             try {
-                String fileSUM = getFileSHA256(file,
+                String fileSUM = getZipSHA256(file,
                         getSUMProgress(State.ACTION_CHECKING_SUM, file.getName()));
                 boolean sumCheck = fileSUM.equals(latestSUM);
                 Logger.d("fileSUM=" + fileSUM + " latestSUM=" + latestSUM);
@@ -945,39 +1381,36 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
     }
 
     public static String getFileSHA256(File file, ProgressListener progressListener) {
-        String ret = null;
-        int count = 0;
-
         long total = file.length();
         if (progressListener != null)
             progressListener.onProgress(getProgress(0, total), 0, total);
 
-        try {
-            try (FileInputStream is = new FileInputStream(file)) {
-                MessageDigest digest = MessageDigest.getInstance("SHA-256");
-                byte[] buffer = new byte[1024];
-                int r;
-
-                while ((r = is.read(buffer)) > 0) {
-                    digest.update(buffer, 0, r);
-                    count += r;
-                    if (progressListener != null)
-                        progressListener.onProgress(getProgress(count, total), count, total);
-                }
+        // null if there's no SHA256 support, or the file can't be read
+        final FileHasher.Result result = FileHasher.hash(file, progressListener);
 
-                ret = Download.digestToHexString(digest);
-            }
-        } catch (IOException | NoSuchAlgorithmException e) {
-            // No SHA256 support (returns null)
-            // The SHA256 of a non-existing file is null
-            // Read or close error (returns null)
-            Logger.ex(e);
-        }
+        if (progressListener != null)
+            progressListener.onProgress(getProgress(total, total), total, total);
+
+        return result != null ? result.sha256 : null;
+    }
+
+    /**
+     * Like getFileSHA256, but also scans the ZIP on the way so ABUpdate can
+     * reuse the result instead of reading the file again. Files that were
+     * verified before and haven't changed since are not read at all.
+     */
+    private String getZipSHA256(File file, ProgressListener progressListener) {
+        long total = file.length();
+        if (progressListener != null)
+            progressListener.onProgress(getProgress(0, total), 0, total);
+
+        final ZipScanner.Result result = VerificationCache.getInstance(this)
+                .verify(file, progressListener);
 
         if (progressListener != null)
             progressListener.onProgress(getProgress(total, total), total, total);
 
-        return ret;
+        return result != null ? result.sha256 : null;
     }
 
     private static void writeString(OutputStream os, String s)
@@ -1001,7 +1434,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
 
     protected void onUpdateCompleted(int status, int errorCode) {
         Logger.d("onUpdateCompleted status = " + status);
-        mNotificationManager.cancel(NOTIFICATION_UPDATE);
+        mUpdateNotifier.cancel();
         mIsUpdateRunning = false;
         if (status == UpdateEngine.ErrorCodeConstants.SUCCESS) {
             mPrefs.edit().putBoolean(PREF_PENDING_REBOOT, true).commit();
@@ -1017,53 +1450,26 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         }
     }
 
-    private synchronized void setFlashNotificationProgress(int percent, int sec) {
+    /**
+     * @param rate bytes per second, or ProgressSnapshot.UNKNOWN
+     * @param eta seconds, or ProgressSnapshot.UNKNOWN
+     */
+    public void setDownloadNotificationProgress(float progress, long rate, long eta) {
         // max progress is 100%
-        mFlashNotificationBuilder.setProgress(100, percent, false);
-        String sub = "0%";
-        if (percent > 0) {
-            sub = String.format(Locale.ENGLISH,
-                                    getString(R.string.notify_eta_remaining),
-                                    percent, sec / 60, sec % 60);
-        }
-        mFlashNotificationBuilder.setSubText(sub);
-        mNotificationManager.notify(
-                    NOTIFICATION_UPDATE, mFlashNotificationBuilder.build());
+        mDownloadNotifier.setProgress(Math.round(progress), (int) eta,
+                rate > 0 ? rate / 1024f : 0f);
     }
 
-    public synchronized void setDownloadNotificationProgress(float progress, long current, long total, long ms) {
-        // max progress is 100%
-        int percent = Math.round(progress);
-        mDownloadNotificationBuilder.setProgress(100, percent, false);
-        // long --> int overflows FTL (progress.setXXX)
-        boolean progressInK = false;
-        if (total > 1024L * 1024L * 1024L) {
-            progressInK = true;
-            current /= 1024L;
-            total /= 1024L;
-        }
-        String sub = "";
-        if ((ms > 500) && (current > 0) && (total > 0)) {
-            float kibps = ((float) current / 1024f)
-                    / ((float) ms / 1000f);
-            if (progressInK)
-                kibps *= 1024f;
-            int sec = (int) (((((float) total / (float) current) * (float) ms) - ms) / 1000f);
-            if (kibps < 1024) {
-                sub = String.format(Locale.ENGLISH,
-                        "%2d%% · %.0f KiB/s · %02d:%02d",
-                        percent, kibps, sec / 60, sec % 60);
-            } else {
-                sub = String.format(Locale.ENGLISH,
-                        "%2d%% · %.0f MiB/s · %02d:%02d",
-                        percent, kibps / 1024f, sec / 60, sec % 60);
-            }
+    private static String formatDownloadProgress(int percent, int sec, float kibps) {
+        if (sec < 0) return String.format(Locale.ENGLISH, "%2d%%", percent);
+        if (kibps < 1024) {
+            return String.format(Locale.ENGLISH,
+                    "%2d%% · %.0f KiB/s · %02d:%02d",
+                    percent, kibps, sec / 60, sec % 60);
         }
-        if (sub.isEmpty()) sub = String.format(Locale.ENGLISH,
-                "%2d%%", percent);
-        mDownloadNotificationBuilder.setSubText(sub);
-        mNotificationManager.notify(
-                NOTIFICATION_BUSY, mDownloadNotificationBuilder.build());
+        return String.format(Locale.ENGLISH,
+                "%2d%% · %.0f MiB/s · %02d:%02d",
+                percent, kibps / 1024f, sec / 60, sec % 60);
     }
 
     private void flashABUpdate() {
@@ -1089,14 +1495,15 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
 
         newFlashNotification(_filename);
 
+        // update_engine may report progress before start() returns
+        mFlashEstimator = new ThroughputEstimator(0, 0);
         final int code = ABUpdate.getInstance(this).start(flashFilename, mProgressListener);
         if (code < 0) {
-            mLastProgressTime = new long[] { 0, SystemClock.elapsedRealtime() };
             mProgressListener.setStatus(_filename);
             mIsUpdateRunning = true;
             return;
         }
-        mNotificationManager.cancel(NOTIFICATION_UPDATE);
+        mUpdateNotifier.cancel();
         mIsUpdateRunning = false;
         mState.update(State.ERROR_AB_FLASH, code);
     }
@@ -1236,6 +1643,27 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         return null;
     }
 
+    /**
+     * @param sumUrl - url to sha256sum file, the chunk manifest sits next to it
+     * @return the manifest or null if the server does not provide one
+     */
+    private ChunkManifest getChunkManifest(String sumUrl) {
+        String urlSuffix = mConfig.getUrlSuffix();
+        if (mIsUrlOverride) {
+            sumUrl = mSumUrlOvr;
+        } else if (urlSuffix.length() > 0) {
+            sumUrl += urlSuffix;
+        }
+        final int idx = sumUrl.lastIndexOf(".sha256sum");
+        if (idx < 0) return null;
+        final String url = sumUrl.substring(0, idx) + ChunkManifest.SUFFIX
+                + sumUrl.substring(idx + ".sha256sum".length());
+        final ChunkManifest manifest = ChunkManifest.fromString(Download.asString(url));
+        Logger.d("getChunkManifest - " + (manifest != null
+                ? "block size = " + manifest.getBlockSize() : "none"));
+        return manifest;
+    }
+
     private static float getProgress(long current, long total) {
         if (total == 0)
             return 0f;
@@ -1320,6 +1748,8 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
 
         newDownloadNotification(false,
                 getString(R.string.state_action_downloading));
+        mDownloadNotifier.attach(mDownloadNotificationBuilder,
+                UpdateService::formatDownloadProgress);
 
         mHandler.post(() -> {
             mIsUpdateRunning = true;
@@ -1402,9 +1832,12 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
 
                 if (checkOnly == PREF_AUTO_DOWNLOAD_FULL) {
                     if (userInitiated || mNetworkState.getState()) {
+                        mRateLimiter = userInitiated ? null : new RateLimiter(this::getDownloadRate);
+                        if (deltaUpdate(latestBuild, size)) return;
                         final String latestSUM = getLatestSHA256Sum(latestFetchSUM);
                         if (latestSUM != null) {
-                            downloadBuild(latestFetch, latestSUM, latestBuild);
+                            downloadBuild(latestFetch, latestSUM,
+                                    getChunkManifest(latestFetchSUM), latestBuild);
                         } else {
                             mState.update(State.ERROR_DOWNLOAD, Download.ERROR_CODE_NO_SUM_FILE);
                             Logger.d("aborting download due to sha256sum not found");
@@ -1547,7 +1980,7 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
             }
             final ProgressListener listener = getSUMProgress(
                     State.ACTION_CHECKING_SUM, flashFilename);
-            final String fileSha = getFileSHA256(fn, listener);
+            final String fileSha = getZipSHA256(fn, listener);
             if (fileSha == null || sha == null || !fileSha.equals(sha)) {
                 mState.update(State.ACTION_FLASH_FILE_INVALID_SUM, fn.getName());
                 return;
@@ -1579,41 +2012,98 @@ public class UpdateService extends Service implements OnSharedPreferenceChangeLi
         mNotificationManager.createNotificationChannel(channel);
     }
 
+    /**
+     * Fetches the changelog of the latest build plus those of up to
+     * CHANGELOG_MAX_BUILDS builds the user skipped. All requests run on a
+     * small pool; once a commit turns out to be as old as the running build,
+     * nothing older than it is fetched any more. Whatever is not done within
+     * CHANGELOG_TIMEOUT_MS overall is cancelled and left out.
+     */
     private String getChangelogString() {
+        final long deadline = SystemClock.elapsedRealtime() + CHANGELOG_TIMEOUT_MS;
         final String jsURL = mConfig.getUrlBaseJson();
-        StringBuilder changelog = new StringBuilder(
-                Download.asString(jsURL.replace(
-                mConfig.getDevice() + ".json",
-                "Changelog.txt")));
-        // currently changelog only contains the latest info
-        // let us check if we have any builds the user skipped and add em
+        final ExecutorService executor = Executors.newFixedThreadPool(CHANGELOG_THREADS);
         try {
-            final JSONArray jArr = new JSONArray(Download.asString(mConfig.getUrlAPIHistory()));
-            for (int i = 1; i < jArr.length() && i < 10; i++) {
-                try {
+            final Future<String> latest = executor.submit(() -> Download.asString(
+                    jsURL.replace(mConfig.getDevice() + ".json", "Changelog.txt")));
+            // currently changelog only contains the latest info
+            // let us check if we have any builds the user skipped and add em
+            final List<Future<String>> skipped = new ArrayList<>();
+            // index of the first commit that is not newer than the running build
+            final AtomicInteger last = new AtomicInteger(Integer.MAX_VALUE);
+            try {
+                final JSONArray jArr = new JSONArray(Download.asString(mConfig.getUrlAPIHistory()));
+                final long currDate = Long.parseLong(
+                        mConfig.getFilenameBase().split("-")[4].substring(0, 8));
+                for (int i = 1; i < jArr.length() && i <= CHANGELOG_MAX_BUILDS; i++) {
+                    final int index = i;
                     final String otaJsonURL = jsURL.replace(
                             mConfig.getUrlBranchName(),
                             jArr.getJSONObject(i).getString("sha"));
-                    final JSONObject otaJson = new JSONObject(Download.asString(otaJsonURL));
-                    final String filename = otaJson.getJSONArray("response")
-                            .getJSONObject(0).getString("filename");
-                    final Long fileDate = Long.parseLong(
-                            filename.split("-")[4].substring(0, 8));
-                    final Long currDate = Long.parseLong(
-                            mConfig.getFilenameBase().split("-")[4].substring(0, 8));
-                    if (fileDate <= currDate) break; // reached an older/same build
-
-                    // fetch and add the changelog of that commit sha, titled by the date
-                    final String currChangelog = Download.asString(
-                            otaJsonURL.replace(mConfig.getDevice() + ".json", "Changelog.txt"));
-                    changelog.append("\n" + fileDate + ":\n\n" + currChangelog);
-                } catch (JSONException e) {
-                    Logger.ex(e);
+                    skipped.add(executor.submit(() ->
+                            getSkippedChangelog(otaJsonURL, currDate, index, last)));
                 }
+            } catch (Exception e) {
+                Logger.ex(e);
+            }
+
+            final String latestChangelog = getChangelogResult(latest, deadline);
+            StringBuilder changelog = new StringBuilder(
+                    latestChangelog != null ? latestChangelog : "");
+            // history is newest first, keep that order
+            for (int i = 0; i < skipped.size(); i++) {
+                if (i + 1 >= last.get()) break; // reached an older/same build
+                final String currChangelog = getChangelogResult(skipped.get(i), deadline);
+                if (currChangelog != null) changelog.append(currChangelog);
             }
+            // drop whatever is still queued or running
+            for (Future<String> future : skipped)
+                future.cancel(true);
+            return changelog.toString();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the titled changelog of the build at the given commit, or null
+     * if it could not be fetched or is not newer than the running build
+     */
+    private String getSkippedChangelog(String otaJsonURL, long currDate, int index,
+            AtomicInteger last) {
+        if (index >= last.get()) return null;
+        try {
+            // both files are addressed by commit sha, so they never change
+            final JSONObject otaJson = new JSONObject(Download.asString(otaJsonURL, true));
+            final String filename = otaJson.getJSONArray("response")
+                    .getJSONObject(0).getString("filename");
+            final long fileDate = Long.parseLong(filename.split("-")[4].substring(0, 8));
+            if (fileDate <= currDate) {
+                last.accumulateAndGet(index, Math::min);
+                return null;
+            }
+            if (index >= last.get()) return null;
+
+            // fetch the changelog of that commit sha, titled by the date
+            final String currChangelog = Download.asString(
+                    otaJsonURL.replace(mConfig.getDevice() + ".json", "Changelog.txt"), true);
+            return "\n" + fileDate + ":\n\n" + currChangelog;
         } catch (Exception e) {
             Logger.ex(e);
+            return null;
+        }
+    }
+
+    private static String getChangelogResult(Future<String> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Logger.d("changelog request timed out");
+            future.cancel(true);
+        } catch (InterruptedException | ExecutionException e) {
+            Logger.ex(e);
         }
-        return changelog.toString();
+        return null;
     }
 }
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+/**
+ * Streaming VCDIFF (RFC 3284) decoder for the deltas produced by xdelta3
+ * with secondary compression disabled. The delta is read one window at a
+ * time, source segments are memory-mapped and each target window is
+ * decoded into a reused buffer before it is written out, so memory use is
+ * bounded by the largest window rather than by the file sizes.
+ */
+class VCDiffDecoder {
+    // header indicator
+    private static final int VCD_DECOMPRESS = 0x01;
+    private static final int VCD_CODETABLE = 0x02;
+    private static final int VCD_APPHEADER = 0x04;
+
+    // window indicator, VCD_ADLER32 is an xdelta3 extension
+    private static final int VCD_SOURCE = 0x01;
+    private static final int VCD_TARGET = 0x02;
+    private static final int VCD_ADLER32 = 0x04;
+
+    private static final int NOOP = 0;
+    private static final int ADD = 1;
+    private static final int RUN = 2;
+    private static final int COPY = 3;
+
+    private static final int NEAR_SIZE = 4;
+    private static final int SAME_SIZE = 3;
+
+    private static final int MAX_WINDOW_SIZE = 64 * 1024 * 1024;
+    // the source segment may span the whole source file, map it in pieces
+    private static final int SOURCE_CHUNK_SIZE = 1024 * 1024 * 1024;
+
+    // default code table, first and second instruction of every opcode
+    private static final byte[] TYPE1 = new byte[256];
+    private static final byte[] SIZE1 = new byte[256];
+    private static final byte[] MODE1 = new byte[256];
+    private static final byte[] TYPE2 = new byte[256];
+    private static final byte[] SIZE2 = new byte[256];
+    private static final byte[] MODE2 = new byte[256];
+
+    static {
+        int i = 0;
+        set(i++, RUN, 0, 0, NOOP, 0, 0);
+        for (int size = 0; size <= 17; size++)
+            set(i++, ADD, size, 0, NOOP, 0, 0);
+        for (int mode = 0; mode < 2 + NEAR_SIZE + SAME_SIZE; mode++) {
+            set(i++, COPY, 0, mode, NOOP, 0, 0);
+            for (int size = 4; size <= 18; size++)
+                set(i++, COPY, size, mode, NOOP, 0, 0);
+        }
+        for (int mode = 0; mode < 2 + NEAR_SIZE; mode++)
+            for (int addSize = 1; addSize <= 4; addSize++)
+                for (int copySize = 4; copySize <= 6; copySize++)
+                    set(i++, ADD, addSize, 0, COPY, copySize, mode);
+        for (int mode = 2 + NEAR_SIZE; mode < 2 + NEAR_SIZE + SAME_SIZE; mode++)
+            for (int addSize = 1; addSize <= 4; addSize++)
+                set(i++, ADD, addSize, 0, COPY, 4, mode);
+        for (int mode = 0; mode < 2 + NEAR_SIZE + SAME_SIZE; mode++)
+            set(i++, COPY, 4, mode, ADD, 1, 0);
+    }
+
+    private static void set(int opcode, int type1, int size1, int mode1,
+            int type2, int size2, int mode2) {
+        TYPE1[opcode] = (byte) type1;
+        SIZE1[opcode] = (byte) size1;
+        MODE1[opcode] = (byte) mode1;
+        TYPE2[opcode] = (byte) type2;
+        SIZE2[opcode] = (byte) size2;
+        MODE2[opcode] = (byte) mode2;
+    }
+
+    /**
+     * One of the data, instructions and addresses sections of a window
+     */
+    private static class Section {
+        byte[] buffer = new byte[0];
+        int pos;
+        int length;
+
+        void read(InputStream is, int length) throws IOException {
+            if (buffer.length < length) buffer = new byte[length];
+            readFully(is, buffer, length);
+            this.pos = 0;
+            this.length = length;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= length) throw new IOException("Section overrun");
+            return buffer[pos++] & 0xff;
+        }
+
+        long readLong() throws IOException {
+            long ret = 0;
+            int b;
+            do {
+                b = readByte();
+                if ((ret >>> 56) != 0) throw new IOException("Integer overflow");
+                ret = (ret << 7) | (b & 0x7f);
+            } while ((b & 0x80) != 0);
+            return ret;
+        }
+
+        int readInt() throws IOException {
+            final long ret = readLong();
+            if (ret > Integer.MAX_VALUE) throw new IOException("Integer overflow");
+            return (int) ret;
+        }
+    }
+
+    private final FileChannel mSource;
+    private final InputStream mDelta;
+    private final FileChannel mTarget;
+    private final MessageDigest mTargetDigest;
+    private long mTargetPos;
+
+    private final Section mData = new Section();
+    private final Section mInst = new Section();
+    private final Section mAddr = new Section();
+    private byte[] mWindow = new byte[0];
+    private final Adler32 mAdler = new Adler32();
+
+    private ByteBuffer[] mSourceMap;
+    private long mSourceMapPos = -1;
+    private long mSourceMapLength = -1;
+
+    private final long[] mNear = new long[NEAR_SIZE];
+    private int mNextSlot;
+    private final long[] mSame = new long[SAME_SIZE * 256];
+
+    private VCDiffDecoder(FileChannel source, InputStream delta, FileChannel target,
+            MessageDigest targetDigest) {
+        mSource = source;
+        mDelta = delta;
+        mTarget = target;
+        mTargetDigest = targetDigest;
+    }
+
+    /**
+     * Applies delta to source, writing target. Throws on malformed or
+     * unsupported input (secondary compression, custom code tables).
+     */
+    public static void decode(File source, File delta, File target) throws IOException {
+        try (InputStream deltaStream = new BufferedInputStream(
+                new FileInputStream(delta), 262144)) {
+            decode(source, deltaStream, target, null);
+        }
+    }
+
+    /**
+     * Applies a delta read from a (buffered) stream, for patching while the
+     * delta is still being downloaded. If targetDigest is not null it is fed
+     * the target as it is written, so it needs no second pass to verify.
+     */
+    public static void decode(File source, InputStream delta, File target,
+            MessageDigest targetDigest) throws IOException {
+        try (FileInputStream sourceStream = new FileInputStream(source);
+             RandomAccessFile targetFile = new RandomAccessFile(target, "rw")) {
+            targetFile.setLength(0);
+            final VCDiffDecoder decoder = new VCDiffDecoder(sourceStream.getChannel(),
+                    delta, targetFile.getChannel(), targetDigest);
+            decoder.readHeader();
+            while (decoder.decodeWindow());
+        }
+    }
+
+    private void readHeader() throws IOException {
+        if (readByte() != 0xD6 || readByte() != 0xC3 || readByte() != 0xC4
+                || readByte() != 0x00)
+            throw new IOException("Not a VCDIFF file");
+        final int indicator = readByte();
+        if ((indicator & VCD_DECOMPRESS) != 0)
+            throw new IOException("Secondary compression is not supported");
+        if ((indicator & VCD_CODETABLE) != 0)
+            throw new IOException("Application-defined code tables are not supported");
+        if ((indicator & VCD_APPHEADER) != 0) {
+            long skip = readInt();
+            while (skip > 0) {
+                final long skipped = mDelta.skip(skip);
+                if (skipped <= 0) throw new EOFException();
+                skip -= skipped;
+            }
+        }
+    }
+
+    private boolean decodeWindow() throws IOException {
+        final int indicator = mDelta.read();
+        if (indicator < 0) return false;
+
+        long sourceLength = 0;
+        long sourcePos = 0;
+        if ((indicator & (VCD_SOURCE | VCD_TARGET)) == (VCD_SOURCE | VCD_TARGET))
+            throw new IOException("Invalid window indicator");
+        if ((indicator & (VCD_SOURCE | VCD_TARGET)) != 0) {
+            sourceLength = readLong();
+            sourcePos = readLong();
+        }
+        readLong(); // length of the delta encoding, we stream it
+        final int targetLength = readInt();
+        if (targetLength > MAX_WINDOW_SIZE)
+            throw new IOException("Target window too large: " + targetLength);
+        if (readByte() != 0)
+            throw new IOException("Secondary compression is not supported");
+        final int dataLength = readInt();
+        final int instLength = readInt();
+        final int addrLength = readInt();
+        long checksum = -1;
+        if ((indicator & VCD_ADLER32) != 0)
+            checksum = ((long) readByte() << 24) | (readByte() << 16)
+                    | (readByte() << 8) | readByte();
+        mData.read(mDelta, dataLength);
+        mInst.read(mDelta, instLength);
+        mAddr.read(mDelta, addrLength);
+
+        ByteBuffer[] source = null;
+        if ((indicator & VCD_SOURCE) != 0) {
+            source = mapSource(sourcePos, sourceLength);
+        } else if ((indicator & VCD_TARGET) != 0) {
+            // read into memory rather than mapped, so only these are capped
+            if (sourceLength > MAX_WINDOW_SIZE)
+                throw new IOException("Target source segment too large: " + sourceLength);
+            if (sourcePos + sourceLength > mTargetPos)
+                throw new IOException("Source segment beyond target");
+            final ByteBuffer segment = ByteBuffer.allocate((int) sourceLength);
+            while (segment.hasRemaining()) {
+                if (mTarget.read(segment, sourcePos + segment.position()) < 0)
+                    throw new EOFException();
+            }
+            segment.flip();
+            source = new ByteBuffer[] { segment };
+        }
+
+        if (mWindow.length < targetLength) mWindow = new byte[targetLength];
+        final byte[] window = mWindow;
+        Arrays.fill(mNear, 0);
+        mNextSlot = 0;
+        Arrays.fill(mSame, 0);
+
+        int t = 0;
+        while (mInst.pos < mInst.length) {
+            final int opcode = mInst.readByte();
+            for (int half = 0; half < 2; half++) {
+                final int type = half == 0 ? TYPE1[opcode] : TYPE2[opcode];
+                if (type == NOOP) continue;
+                int size = (half == 0 ? SIZE1[opcode] : SIZE2[opcode]) & 0xff;
+                if (size == 0) size = mInst.readInt();
+                if (size > targetLength - t) throw new IOException("Target window overrun");
+                switch (type) {
+                    case ADD:
+                        if (size > mData.length - mData.pos)
+                            throw new IOException("Data section overrun");
+                        System.arraycopy(mData.buffer, mData.pos, window, t, size);
+                        mData.pos += size;
+                        break;
+                    case RUN:
+                        Arrays.fill(window, t, t + size, (byte) mData.readByte());
+                        break;
+                    case COPY:
+                        final int mode = half == 0 ? MODE1[opcode] : MODE2[opcode];
+                        final long addr = decodeAddress(sourceLength + t, mode);
+                        int copied = 0;
+                        if (addr < sourceLength) {
+                            copied = (int) Math.min(size, sourceLength - addr);
+                            copySource(source, addr, window, t, copied);
+                        }
+                        // may overlap the bytes being produced, so go byte by byte
+                        for (int from = (int) (addr + copied - sourceLength); copied < size;
+                                copied++)
+                            window[t + copied] = window[from++];
+                        break;
+                }
+                t += size;
+            }
+        }
+        if (t != targetLength) throw new IOException("Target window underrun");
+
+        if (checksum >= 0) {
+            mAdler.reset();
+            mAdler.update(window, 0, targetLength);
+            if (mAdler.getValue() != checksum)
+                throw new IOException("Adler32 mismatch in window at " + mTargetPos);
+        }
+
+        if (mTargetDigest != null) mTargetDigest.update(window, 0, targetLength);
+        final ByteBuffer out = ByteBuffer.wrap(window, 0, targetLength);
+        while (out.hasRemaining())
+            mTarget.write(out, mTargetPos + out.position());
+        mTargetPos += targetLength;
+        return true;
+    }
+
+    private ByteBuffer[] mapSource(long pos, long length) throws IOException {
+        if (pos != mSourceMapPos || length != mSourceMapLength) {
+            if (pos + length > mSource.size())
+                throw new IOException("Source segment beyond source file");
+            mSourceMap = null;
+            final ByteBuffer[] map = new ByteBuffer[
+                    (int) ((length + SOURCE_CHUNK_SIZE - 1) / SOURCE_CHUNK_SIZE)];
+            for (int i = 0; i < map.length; i++) {
+                final long offset = (long) i * SOURCE_CHUNK_SIZE;
+                map[i] = mSource.map(FileChannel.MapMode.READ_ONLY, pos + offset,
+                        Math.min(SOURCE_CHUNK_SIZE, length - offset));
+            }
+            mSourceMap = map;
+            mSourceMapPos = pos;
+            mSourceMapLength = length;
+        }
+        return mSourceMap;
+    }
+
+    private static void copySource(ByteBuffer[] source, long addr, byte[] window,
+            int offset, int length) {
+        while (length > 0) {
+            final ByteBuffer src = source[(int) (addr / SOURCE_CHUNK_SIZE)].duplicate();
+            src.position((int) (addr % SOURCE_CHUNK_SIZE));
+            final int count = Math.min(length, src.remaining());
+            src.get(window, offset, count);
+            addr += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private long decodeAddress(long here, int mode) throws IOException {
+        final long addr;
+        if (mode == 0) {
+            addr = mAddr.readLong();
+        } else if (mode == 1) {
+            addr = here - mAddr.readLong();
+        } else if (mode < 2 + NEAR_SIZE) {
+            addr = mNear[mode - 2] + mAddr.readLong();
+        } else {
+            addr = mSame[(mode - 2 - NEAR_SIZE) * 256 + mAddr.readByte()];
+        }
+        if (addr < 0 || addr >= here) throw new IOException("Invalid address " + addr);
+        mNear[mNextSlot] = addr;
+        mNextSlot = (mNextSlot + 1) % NEAR_SIZE;
+        mSame[(int) (addr % (SAME_SIZE * 256))] = addr;
+        return addr;
+    }
+
+    private int readByte() throws IOException {
+        final int b = mDelta.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private long readLong() throws IOException {
+        long ret = 0;
+        int b;
+        do {
+            b = readByte();
+            if ((ret >>> 56) != 0) throw new IOException("Integer overflow");
+            ret = (ret << 7) | (b & 0x7f);
+        } while ((b & 0x80) != 0);
+        return ret;
+    }
+
+    private int readInt() throws IOException {
+        final long ret = readLong();
+        if (ret > Integer.MAX_VALUE) throw new IOException("Integer overflow");
+        return (int) ret;
+    }
+
+    private static void readFully(InputStream is, byte[] buffer, int length)
+            throws IOException {
+        int pos = 0;
+        while (pos < length) {
+            final int r = is.read(buffer, pos, length - pos);
+            if (r < 0) throw new EOFException();
+            pos += r;
+        }
+    }
+}
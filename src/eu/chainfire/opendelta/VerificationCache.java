@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import android.content.Context;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import eu.chainfire.opendelta.UpdateService.ProgressListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remembers ZipScanner results per file path, on disk in app-private storage
+ * where other apps can't forge entries, so a file that was verified once only
+ * needs a stat() to be trusted again. An entry holds as long as size, mtime
+ * and inode all stay the same; replacing or rewriting the file changes at
+ * least one of them.
+ */
+class VerificationCache {
+    private static final String FILENAME = ".verified";
+    private static final int MAX_ENTRIES = 16;
+
+    private static VerificationCache sInstance;
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long lastModified;
+        final long inode;
+        final long verifiedAt;
+        final ZipScanner.Result result;
+
+        Entry(String path, long size, long lastModified, long inode, long verifiedAt,
+                ZipScanner.Result result) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.inode = inode;
+            this.verifiedAt = verifiedAt;
+            this.result = result;
+        }
+
+        boolean matches(Entry other) {
+            return size == other.size && lastModified == other.lastModified
+                    && inode == other.inode;
+        }
+    }
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private VerificationCache(File file) {
+        mFile = file;
+        load();
+    }
+
+    public static synchronized VerificationCache getInstance(Context context) {
+        if (sInstance == null) {
+            // earlier versions kept it in shared storage
+            new File(Config.getInstance(context).getPathBase(), FILENAME).delete();
+            sInstance = new VerificationCache(new File(context.getFilesDir(), FILENAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the stored result if the file is unchanged since it was
+     * verified, or null
+     */
+    public ZipScanner.Result get(File file) {
+        final Entry current = identify(file, null);
+        if (current == null) return null;
+        synchronized (this) {
+            final Entry entry = mEntries.get(current.path);
+            if (entry != null && entry.matches(current)) {
+                Logger.d("verification cache: hit for %s, verified at %d",
+                        file.getName(), entry.verifiedAt);
+                return entry.result;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the stored result if there is a valid one, otherwise scans the
+     * file and stores the result
+     *
+     * @return the result, or null if the file could not be read
+     */
+    public ZipScanner.Result verify(File file, ProgressListener progressListener) {
+        final ZipScanner.Result cached = get(file);
+        if (cached != null) return cached;
+
+        final Entry before = identify(file, null);
+        final ZipScanner.Result result = ZipScanner.verify(file, progressListener);
+        if (result == null || before == null) return result;
+        // don't remember a file that changed while it was being read
+        final Entry after = identify(file, result);
+        if (after == null || !after.matches(before) || after.size != result.size)
+            return result;
+        synchronized (this) {
+            mEntries.put(after.path, after);
+            save();
+        }
+        return result;
+    }
+
+    private static Entry identify(File file, ZipScanner.Result result) {
+        try {
+            final String path = file.getAbsolutePath();
+            final StructStat stat = Os.stat(path);
+            return new Entry(path, stat.st_size, file.lastModified(), stat.st_ino,
+                    System.currentTimeMillis(), result);
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    private synchronized void load() {
+        if (!mFile.exists()) return;
+        try (FileInputStream is = new FileInputStream(mFile)) {
+            final byte[] bytes = new byte[(int) mFile.length()];
+            int pos = 0, r;
+            while (pos < bytes.length && (r = is.read(bytes, pos, bytes.length - pos)) > 0)
+                pos += r;
+            final JSONArray entries = new JSONArray(
+                    new String(bytes, 0, pos, StandardCharsets.UTF_8));
+            for (int i = 0; i < entries.length(); i++) {
+                final JSONObject object = entries.getJSONObject(i);
+                final Entry entry = new Entry(object.getString("path"),
+                        object.getLong("size"), object.getLong("mtime"),
+                        object.getLong("inode"), object.getLong("verifiedAt"),
+                        ZipScanner.Result.fromJSON(object.getJSONObject("result")));
+                mEntries.put(entry.path, entry);
+            }
+        } catch (IOException | JSONException e) {
+            Logger.ex(e);
+            mEntries.clear();
+        }
+    }
+
+    private synchronized void save() {
+        // forget files that are gone, and the oldest ones beyond the limit
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!new File(iterator.next().path).exists()) iterator.remove();
+        }
+        while (mEntries.size() > MAX_ENTRIES) {
+            Entry oldest = null;
+            for (Entry entry : mEntries.values()) {
+                if (oldest == null || entry.verifiedAt < oldest.verifiedAt) oldest = entry;
+            }
+            mEntries.remove(oldest.path);
+        }
+
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            final JSONArray entries = new JSONArray();
+            for (Entry entry : mEntries.values()) {
+                final JSONObject object = new JSONObject();
+                object.put("path", entry.path);
+                object.put("size", entry.size);
+                object.put("mtime", entry.lastModified);
+                object.put("inode", entry.inode);
+                object.put("verifiedAt", entry.verifiedAt);
+                object.put("result", entry.result.toJSON());
+                entries.put(object);
+            }
+            try (FileOutputStream os = new FileOutputStream(tmp, false)) {
+                os.write(entries.toString().getBytes(StandardCharsets.UTF_8));
+                os.getFD().sync();
+            }
+            if (!tmp.renameTo(mFile))
+                Logger.d("verification cache: failed to save %s", mFile.getName());
+        } catch (IOException | JSONException e) {
+            Logger.ex(e);
+            tmp.delete();
+        }
+    }
+}
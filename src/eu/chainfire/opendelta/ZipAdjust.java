@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Java port of zipadjust, for when libopendelta is not part of the build.
+ * Rewrites a ZIP with every deflated entry stored instead, which is the
+ * "store" form the server diffs against. Local headers get the crc and
+ * sizes from the central directory and data descriptors are dropped, all
+ * offsets are corrected, and everything else is copied as is. ZIP64 is not
+ * supported, the caller checks the output against the .delta anyway.
+ */
+class ZipAdjust {
+    private static final int MAGIC_LOCAL_HEADER = 0x04034b50;
+    private static final int MAGIC_CENTRAL_HEADER = 0x02014b50;
+    private static final int MAGIC_CENTRAL_FOOTER = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int CENTRAL_FOOTER_SIZE = 22;
+    // footer plus the longest possible comment
+    private static final int MAX_FOOTER_SEARCH = CENTRAL_FOOTER_SIZE + 0xffff;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel mIn;
+    private final OutputStream mOut;
+    private final boolean mDecompress;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final byte[] mInflated = new byte[BUFFER_SIZE];
+    private final Inflater mInflater = new Inflater(true);
+    private long mOutPos;
+
+    private ZipAdjust(FileChannel in, OutputStream out, boolean decompress) {
+        mIn = in;
+        mOut = out;
+        mDecompress = decompress;
+    }
+
+    /**
+     * Same as Native.zipadjust, but throws on failure
+     */
+    public static void adjust(File in, File out, boolean decompress) throws IOException {
+        try (RandomAccessFile inFile = new RandomAccessFile(in, "r");
+             OutputStream os = new BufferedOutputStream(
+                     new FileOutputStream(out, false), BUFFER_SIZE)) {
+            final ZipAdjust adjust = new ZipAdjust(inFile.getChannel(), os, decompress);
+            try {
+                adjust.run();
+            } finally {
+                adjust.mInflater.end();
+            }
+        }
+    }
+
+    private void run() throws IOException {
+        final long size = mIn.size();
+        final ByteBuffer footer = findFooter(size);
+        final long directoryOffset = footer.getInt(16) & 0xffffffffL;
+        final long directorySize = footer.getInt(12) & 0xffffffffL;
+        final int entries = footer.getShort(10) & 0xffff;
+        if (directoryOffset == 0xffffffffL || entries == 0xffff)
+            throw new IOException("ZIP64 is not supported");
+        if (directoryOffset + directorySize > size)
+            throw new IOException("Central directory beyond end of file");
+
+        final ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        final ByteBuffer directoryOut = ByteBuffer.allocate((int) directorySize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < entries; i++) {
+            final int pos = directory.position();
+            if (directory.remaining() < CENTRAL_HEADER_SIZE
+                    || directory.getInt(pos) != MAGIC_CENTRAL_HEADER)
+                throw new IOException("Bad central directory entry " + i);
+            final int entrySize = CENTRAL_HEADER_SIZE + (directory.getShort(pos + 28) & 0xffff)
+                    + (directory.getShort(pos + 30) & 0xffff)
+                    + (directory.getShort(pos + 32) & 0xffff);
+            if (directory.remaining() < entrySize)
+                throw new IOException("Bad central directory entry " + i);
+            final ByteBuffer entry = directory.slice().order(ByteOrder.LITTLE_ENDIAN);
+            entry.limit(entrySize);
+            directory.position(pos + entrySize);
+            directoryOut.put(copyEntry(entry));
+        }
+
+        final long directoryOutOffset = mOutPos;
+        directoryOut.flip();
+        write(directoryOut.array(), directoryOut.limit());
+        footer.putInt(12, directoryOut.limit());
+        footer.putInt(16, (int) directoryOutOffset);
+        write(footer.array(), footer.limit());
+    }
+
+    /**
+     * Copies the local header and data of one entry to the output
+     *
+     * @return the central directory entry for the output
+     */
+    private ByteBuffer copyEntry(ByteBuffer central) throws IOException {
+        final int flags = central.getShort(8) & 0xffff;
+        final int method = central.getShort(10) & 0xffff;
+        final int crc = central.getInt(16);
+        final long compressed = central.getInt(20) & 0xffffffffL;
+        final long uncompressed = central.getInt(24) & 0xffffffffL;
+        final long offset = central.getInt(42) & 0xffffffffL;
+        if (compressed == 0xffffffffL || uncompressed == 0xffffffffL
+                || offset == 0xffffffffL)
+            throw new IOException("ZIP64 is not supported");
+
+        final ByteBuffer local = read(offset, LOCAL_HEADER_SIZE);
+        if (local.getInt(0) != MAGIC_LOCAL_HEADER)
+            throw new IOException("Bad local header at " + offset);
+        final int localNames = (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+        final boolean inflate = mDecompress && method == METHOD_DEFLATED;
+        final int outMethod = inflate ? METHOD_STORED : method;
+        final long outCompressed = inflate ? uncompressed : compressed;
+        // sizes are known up front now
+        final int outFlags = flags & ~FLAG_DATA_DESCRIPTOR;
+
+        final ByteBuffer out = ByteBuffer.allocate(central.limit()).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(central);
+        out.putShort(8, (short) outFlags);
+        out.putShort(10, (short) outMethod);
+        out.putInt(20, (int) outCompressed);
+        out.putInt(42, (int) mOutPos);
+
+        local.putShort(6, (short) (local.getShort(6) & ~FLAG_DATA_DESCRIPTOR));
+        local.putShort(8, (short) outMethod);
+        local.putInt(14, crc);
+        local.putInt(18, (int) outCompressed);
+        local.putInt(22, (int) uncompressed);
+        write(local.array(), LOCAL_HEADER_SIZE);
+        final long dataOffset = offset + LOCAL_HEADER_SIZE + localNames;
+        copy(offset + LOCAL_HEADER_SIZE, localNames);
+        if (inflate) {
+            inflate(dataOffset, compressed, uncompressed, crc);
+        } else {
+            copy(dataOffset, compressed);
+        }
+        out.flip();
+        return out;
+    }
+
+    private void inflate(long offset, long compressed, long uncompressed, int crc)
+            throws IOException {
+        final CRC32 crc32 = new CRC32();
+        final ByteBuffer in = ByteBuffer.wrap(mBuffer);
+        long read = 0;
+        long written = 0;
+        mInflater.reset();
+        try {
+            while (!mInflater.finished()) {
+                if (mInflater.needsInput()) {
+                    if (read >= compressed)
+                        throw new EOFException("Deflate stream ends early at " + offset);
+                    in.clear();
+                    in.limit((int) Math.min(mBuffer.length, compressed - read));
+                    readFully(in, offset + read);
+                    mInflater.setInput(mBuffer, 0, in.limit());
+                    read += in.limit();
+                }
+                final int n = mInflater.inflate(mInflated);
+                if (n == 0 && mInflater.needsDictionary())
+                    throw new IOException("Deflate stream needs a dictionary at " + offset);
+                crc32.update(mInflated, 0, n);
+                write(mInflated, n);
+                written += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad deflate stream at " + offset, e);
+        }
+        if (written != uncompressed || (int) crc32.getValue() != crc)
+            throw new IOException("Inflated entry at " + offset + " does not match");
+    }
+
+    private void copy(long offset, long length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(mBuffer);
+        while (length > 0) {
+            buffer.clear();
+            buffer.limit((int) Math.min(mBuffer.length, length));
+            readFully(buffer, offset);
+            write(mBuffer, buffer.limit());
+            offset += buffer.limit();
+            length -= buffer.limit();
+        }
+    }
+
+    private ByteBuffer findFooter(long size) throws IOException {
+        final int search = (int) Math.min(size, MAX_FOOTER_SEARCH);
+        final ByteBuffer tail = read(size - search, search);
+        for (int pos = search - CENTRAL_FOOTER_SIZE; pos >= 0; pos--) {
+            if (tail.getInt(pos) != MAGIC_CENTRAL_FOOTER) continue;
+            final int comment = tail.getShort(pos + 20) & 0xffff;
+            if (pos + CENTRAL_FOOTER_SIZE + comment != search) continue;
+            final ByteBuffer footer = ByteBuffer.allocate(CENTRAL_FOOTER_SIZE + comment)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            tail.position(pos);
+            tail.limit(pos + footer.capacity());
+            footer.put(tail);
+            footer.flip();
+            return footer;
+        }
+        throw new IOException("Central directory not found");
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, offset);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (mIn.read(buffer, offset + buffer.position() - start) < 0)
+                throw new EOFException();
+        }
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        mOut.write(data, 0, length);
+        mOutPos += length;
+        if (mOutPos > 0xffffffffL) throw new IOException("Output needs ZIP64");
+    }
+}
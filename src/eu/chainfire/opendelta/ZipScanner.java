@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2026 Yet Another AOSP Project
+ */
+/*
+ * This file is part of OpenDelta.
+ *
+ * OpenDelta is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenDelta is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenDelta. If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.chainfire.opendelta;
+
+import eu.chainfire.opendelta.UpdateService.ProgressListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Walks an OTA ZIP front to back while FileHasher hashes it, so a single
+ * read gives the whole-file SHA-256, a checked local/central directory
+ * (with CRCs of stored entries), the SHA-256 of the payload.bin span and the
+ * contents of payload_properties.txt. VerificationCache keeps the results,
+ * so ABUpdate does not have to open and scan the ZIP again.
+ *
+ * Only what signapk produces is understood: no data descriptors, no ZIP64.
+ * Anything else simply yields a result that is not valid, and callers fall
+ * back to ZipFile.
+ */
+class ZipScanner implements FileHasher.Sink {
+    private static final String PAYLOAD_BIN_PATH = "payload.bin";
+    private static final String PAYLOAD_PROPERTIES_PATH = "payload_properties.txt";
+    private static final int MAX_PROPERTIES_SIZE = 64 * 1024;
+
+    private static final int SIG_LOCAL = 0x04034b50;
+    private static final int SIG_CENTRAL = 0x02014b50;
+    private static final int SIG_END = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+
+    private static final int STATE_SIGNATURE = 0;
+    private static final int STATE_LOCAL = 1;
+    private static final int STATE_LOCAL_NAME = 2;
+    private static final int STATE_DATA = 3;
+    private static final int STATE_CENTRAL = 4;
+    private static final int STATE_CENTRAL_NAME = 5;
+    private static final int STATE_END = 6;
+    private static final int STATE_END_COMMENT = 7;
+    private static final int STATE_DONE = 8;
+    private static final int STATE_INVALID = 9;
+
+    public static class Result {
+        public final String sha256;
+        public final long size;
+        public final boolean valid;
+        public final long payloadOffset;
+        public final long payloadSize;
+        public final String payloadSHA256;
+        public final String[] payloadProperties;
+
+        private Result(String sha256, long size, boolean valid,
+                long payloadOffset, long payloadSize, String payloadSHA256,
+                String[] payloadProperties) {
+            this.sha256 = sha256;
+            this.size = size;
+            this.valid = valid;
+            this.payloadOffset = payloadOffset;
+            this.payloadSize = payloadSize;
+            this.payloadSHA256 = payloadSHA256;
+            this.payloadProperties = payloadProperties;
+        }
+
+        public boolean isABUpdate() {
+            return valid && payloadOffset >= 0 && payloadProperties != null;
+        }
+
+        public JSONObject toJSON() throws JSONException {
+            final JSONObject object = new JSONObject();
+            object.put("sha256", sha256);
+            object.put("size", size);
+            object.put("valid", valid);
+            object.put("payloadOffset", payloadOffset);
+            object.put("payloadSize", payloadSize);
+            if (payloadSHA256 != null)
+                object.put("payloadSHA256", payloadSHA256);
+            if (payloadProperties != null) {
+                final JSONArray properties = new JSONArray();
+                for (String line : payloadProperties)
+                    properties.put(line);
+                object.put("payloadProperties", properties);
+            }
+            return object;
+        }
+
+        public static Result fromJSON(JSONObject object) throws JSONException {
+            String[] payloadProperties = null;
+            if (object.has("payloadProperties")) {
+                final JSONArray properties = object.getJSONArray("payloadProperties");
+                payloadProperties = new String[properties.length()];
+                for (int i = 0; i < payloadProperties.length; i++)
+                    payloadProperties[i] = properties.getString(i);
+            }
+            return new Result(object.getString("sha256"), object.getLong("size"),
+                    object.getBoolean("valid"), object.getLong("payloadOffset"),
+                    object.getLong("payloadSize"), object.optString("payloadSHA256", null),
+                    payloadProperties);
+        }
+    }
+
+    private static class Entry {
+        String name;
+        int method;
+        long crc;
+        long compressedSize;
+    }
+
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+    private int mState = STATE_SIGNATURE;
+    private long mPos = 0;
+    private byte[] mHeader = new byte[CENTRAL_HEADER_SIZE];
+    private int mHeaderLength = 0;
+    private int mNeed = 4;
+    private long mRecordStart = 0;
+    private long mCentralStart = -1;
+    private int mCentralCount = 0;
+
+    private Entry mEntry;
+    private long mDataRemaining;
+    private final CRC32 mCRC = new CRC32();
+    private MessageDigest mPayloadDigest;
+    private ByteArrayOutputStream mProperties;
+
+    private long mPayloadOffset = -1;
+    private long mPayloadSize = 0;
+    private byte[] mPayloadHash;
+    private String mPayloadSHA256;
+    private String[] mPayloadProperties;
+
+    /**
+     * Hashes the file and scans it in one pass
+     *
+     * @return the result, or null if the file could not be read
+     */
+    public static Result verify(File file, ProgressListener progressListener) {
+        final ZipScanner scanner = new ZipScanner();
+        final FileHasher.Result hash = FileHasher.hash(file, progressListener, scanner);
+        if (hash == null) return null;
+        return scanner.finish(hash);
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        while (data.hasRemaining() && mState != STATE_INVALID) {
+            if (mState == STATE_DONE) {
+                invalid("trailing data after end of central directory");
+                return;
+            }
+            if (mState == STATE_DATA) {
+                final int n = (int) Math.min(data.remaining(), mDataRemaining);
+                final ByteBuffer slice = data.duplicate();
+                slice.limit(slice.position() + n);
+                onData(slice);
+                data.position(data.position() + n);
+                mPos += n;
+                mDataRemaining -= n;
+                if (mDataRemaining == 0) finishEntry();
+                continue;
+            }
+            final int n = Math.min(data.remaining(), mNeed - mHeaderLength);
+            if (mHeader.length < mNeed) {
+                final byte[] header = new byte[mNeed];
+                System.arraycopy(mHeader, 0, header, 0, mHeaderLength);
+                mHeader = header;
+            }
+            data.get(mHeader, mHeaderLength, n);
+            mHeaderLength += n;
+            mPos += n;
+            if (mHeaderLength == mNeed) onHeader();
+        }
+    }
+
+    private void onHeader() {
+        switch (mState) {
+            case STATE_SIGNATURE:
+                final int signature = (int) le32(0);
+                if (signature == SIG_LOCAL && mCentralStart < 0) {
+                    mState = STATE_LOCAL;
+                    mNeed = LOCAL_HEADER_SIZE;
+                } else if (signature == SIG_CENTRAL) {
+                    if (mCentralStart < 0) mCentralStart = mRecordStart;
+                    mState = STATE_CENTRAL;
+                    mNeed = CENTRAL_HEADER_SIZE;
+                } else if (signature == SIG_END && mCentralStart >= 0) {
+                    mState = STATE_END;
+                    mNeed = END_HEADER_SIZE;
+                } else {
+                    invalid(String.format("unexpected signature %08x at %d",
+                            signature, mRecordStart));
+                }
+                break;
+            case STATE_LOCAL:
+                if ((le16(6) & 0x08) != 0) {
+                    invalid("data descriptors are not supported");
+                    break;
+                }
+                mEntry = new Entry();
+                mEntry.method = le16(8);
+                mEntry.crc = le32(14);
+                mEntry.compressedSize = le32(18);
+                if (mEntry.compressedSize == 0xFFFFFFFFL) {
+                    invalid("ZIP64 is not supported");
+                    break;
+                }
+                mState = STATE_LOCAL_NAME;
+                mNeed = LOCAL_HEADER_SIZE + le16(26) + le16(28);
+                if (mHeaderLength < mNeed) break;
+                // fall through, no name and no extra
+            case STATE_LOCAL_NAME:
+                mEntry.name = new String(mHeader, LOCAL_HEADER_SIZE, le16(26),
+                        StandardCharsets.UTF_8);
+                mEntries.put(mRecordStart, mEntry);
+                startEntry(mPos);
+                break;
+            case STATE_CENTRAL:
+                mState = STATE_CENTRAL_NAME;
+                mNeed = CENTRAL_HEADER_SIZE + le16(28) + le16(30) + le16(32);
+                if (mHeaderLength < mNeed) break;
+                // fall through
+            case STATE_CENTRAL_NAME:
+                final Entry entry = mEntries.get(le32(42));
+                final String name = new String(mHeader, CENTRAL_HEADER_SIZE, le16(28),
+                        StandardCharsets.UTF_8);
+                if (entry == null || !entry.name.equals(name) || entry.crc != le32(16)
+                        || entry.compressedSize != le32(20) || entry.method != le16(10)) {
+                    invalid("central directory does not match local header of " + name);
+                    break;
+                }
+                mCentralCount++;
+                nextRecord();
+                break;
+            case STATE_END:
+                if (le16(10) != mCentralCount || mCentralCount != mEntries.size()
+                        || le32(16) != mCentralStart
+                        || le32(12) != mRecordStart - mCentralStart) {
+                    invalid("end of central directory does not match");
+                    break;
+                }
+                mState = STATE_END_COMMENT;
+                mNeed = END_HEADER_SIZE + le16(20);
+                if (mHeaderLength < mNeed) break;
+                // fall through, no comment
+            case STATE_END_COMMENT:
+                mState = STATE_DONE;
+                break;
+        }
+    }
+
+    private void nextRecord() {
+        mState = STATE_SIGNATURE;
+        mHeaderLength = 0;
+        mNeed = 4;
+        mRecordStart = mPos;
+    }
+
+    private void startEntry(long dataOffset) {
+        mCRC.reset();
+        mPayloadDigest = null;
+        mProperties = null;
+        if (PAYLOAD_BIN_PATH.equals(mEntry.name)) {
+            if (mEntry.method != 0) {
+                invalid("payload.bin is compressed");
+                return;
+            }
+            try {
+                mPayloadDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                Logger.ex(e);
+            }
+            mPayloadOffset = dataOffset;
+            mPayloadSize = mEntry.compressedSize;
+        } else if (PAYLOAD_PROPERTIES_PATH.equals(mEntry.name)
+                && mEntry.compressedSize <= MAX_PROPERTIES_SIZE) {
+            mProperties = new ByteArrayOutputStream();
+        }
+        mDataRemaining = mEntry.compressedSize;
+        mState = STATE_DATA;
+        if (mDataRemaining == 0) finishEntry();
+    }
+
+    private void onData(ByteBuffer data) {
+        if (mEntry.method == 0) mCRC.update(data.duplicate());
+        if (mPayloadDigest != null) mPayloadDigest.update(data.duplicate());
+        if (mProperties != null) {
+            final byte[] bytes = new byte[data.remaining()];
+            data.duplicate().get(bytes);
+            mProperties.write(bytes, 0, bytes.length);
+        }
+    }
+
+    private void finishEntry() {
+        if (mEntry.method == 0 && mCRC.getValue() != mEntry.crc) {
+            invalid("CRC mismatch for " + mEntry.name);
+            return;
+        }
+        if (mPayloadDigest != null) {
+            mPayloadHash = mPayloadDigest.digest();
+            final StringBuilder sb = new StringBuilder(64);
+            for (byte b : mPayloadHash)
+                sb.append(String.format(Locale.ENGLISH, "%02x", b));
+            mPayloadSHA256 = sb.toString();
+        }
+        if (mProperties != null) {
+            final byte[] properties = getEntryBytes(mProperties.toByteArray());
+            if (properties == null) return;
+            mPayloadProperties = new String(properties, StandardCharsets.UTF_8).split("\n");
+        }
+        nextRecord();
+    }
+
+    private byte[] getEntryBytes(byte[] data) {
+        if (mEntry.method == 0) return data;
+        if (mEntry.method != 8) {
+            invalid("unsupported compression for " + mEntry.name);
+            return null;
+        }
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                final int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_PROPERTIES_SIZE) break;
+            }
+            final byte[] ret = out.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(ret, 0, ret.length);
+            if (!inflater.finished() || crc.getValue() != mEntry.crc) {
+                invalid("could not inflate " + mEntry.name);
+                return null;
+            }
+            return ret;
+        } catch (DataFormatException e) {
+            Logger.ex(e);
+            invalid("could not inflate " + mEntry.name);
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private Result finish(FileHasher.Result hash) {
+        if (mState != STATE_INVALID && (mState != STATE_DONE || mPos != hash.bytes))
+            invalid("truncated ZIP");
+        boolean valid = mState == STATE_DONE;
+        if (valid && mPayloadProperties != null && mPayloadSHA256 != null)
+            valid = checkPayloadProperties();
+        Logger.d("zip scan %s: valid=%d payload=%d+%d", hash.sha256, valid ? 1 : 0,
+                mPayloadOffset, mPayloadSize);
+        return new Result(hash.sha256, hash.bytes, valid,
+                mPayloadOffset, mPayloadSize, mPayloadSHA256, mPayloadProperties);
+    }
+
+    /**
+     * payload_properties.txt carries size and base64 SHA-256 of payload.bin
+     */
+    private boolean checkPayloadProperties() {
+        final String hash = Base64.getEncoder().encodeToString(mPayloadHash);
+        for (String line : mPayloadProperties) {
+            line = line.trim();
+            if (line.startsWith("FILE_HASH=") && !line.substring(10).equals(hash)) {
+                Logger.d("zip scan: payload.bin hash mismatch");
+                return false;
+            }
+            if (line.startsWith("FILE_SIZE=")
+                    && !line.substring(10).equals(String.valueOf(mPayloadSize))) {
+                Logger.d("zip scan: payload.bin size mismatch");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void invalid(String reason) {
+        Logger.d("zip scan: %s", reason);
+        mState = STATE_INVALID;
+    }
+
+    private int le16(int offset) {
+        return (mHeader[offset] & 0xff) | ((mHeader[offset + 1] & 0xff) << 8);
+    }
+
+    private long le32(int offset) {
+        return (le16(offset) | ((long) le16(offset + 2) << 16)) & 0xFFFFFFFFL;
+    }
+}